@@ -0,0 +1,529 @@
+package com.esri.geoevent.processor.timetree.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import com.esri.ges.core.property.Property;
+import com.esri.geoevent.processor.timetree.TimetreeMetrics;
+import com.esri.geoevent.processor.timetree.TimetreeProcessor;
+import com.esri.geoevent.processor.timetree.TimetreeProcessorDefinition;
+import com.esri.geoevent.processor.timetree.TimetreeProperties;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Drives the processor with a synthetic feed for a given time and reports throughput, latency, memory and GC behaviour,
+ * e.g. for a soak test of several hours or to size a deployment. Options are given as name=value arguments:
+ * <ul>
+ * <li>tracks, rate (events per second over all tracks, 0 as fast as possible), duration, warmup, report (interval of
+ * the progress lines) and threads feeding the processor, each with its own share of the tracks.</li>
+ * <li>window: a number of vertices, or a duration like 10m for a time window.</li>
+ * <li>jitter (milliseconds added to or taken from the report times), outOfOrder (share of the events reported up to
+ * maxDelay before the previous report of their track), duplicates (share of the events sent twice) and idle (share of
+ * the tracks reporting once, then never again).</li>
+ * <li>minThroughput, maxP99 (microseconds), maxBytesPerTrack, maxBytesPerVertex, maxGcPercent and maxGcMillis (the
+ * longest collection): limits checked after the run, 0 for none. Exits with status 1 when one is exceeded.</li>
+ * </ul>
+ * Any other name is set as a processor property, e.g. offHeapStorage=true. Every event is a new event with a new track
+ * id string, as from an input. The retained memory is measured after the run, as the heap in use after a full GC less
+ * the heap in use once the processor was shut down and dropped, plus the off-heap storage.
+ */
+public class SoakTest implements TimetreeProperties
+{
+  private static final Map<String, String> DEFAULTS           = new LinkedHashMap<>();
+  private static final int                 REPORTS_PER_PACING = 100;
+
+  static
+  {
+    DEFAULTS.put("tracks", "10000");
+    DEFAULTS.put("rate", "10000");
+    DEFAULTS.put("duration", "5m");
+    DEFAULTS.put("warmup", "30s");
+    DEFAULTS.put("report", "10s");
+    DEFAULTS.put("threads", "1");
+    DEFAULTS.put("window", "100");
+    DEFAULTS.put("jitter", "0");
+    DEFAULTS.put("outOfOrder", "0");
+    DEFAULTS.put("maxDelay", "5s");
+    DEFAULTS.put("duplicates", "0");
+    DEFAULTS.put("idle", "0");
+    DEFAULTS.put("minThroughput", "0");
+    DEFAULTS.put("maxP99", "0");
+    DEFAULTS.put("maxBytesPerTrack", "0");
+    DEFAULTS.put("maxBytesPerVertex", "0");
+    DEFAULTS.put("maxGcPercent", "0");
+    DEFAULTS.put("maxGcMillis", "0");
+  }
+
+  private final Map<String, String>        options            = new LinkedHashMap<>(DEFAULTS);
+  private final Map<String, String>        processorOptions   = new LinkedHashMap<>();
+  private final LongAdder                  events             = new LongAdder();
+  private final AtomicLong                 longestCollection  = new AtomicLong();
+  private final List<Feeder>               feeders            = new ArrayList<>();
+  private TimetreeProcessor                processor;
+  private volatile boolean                 stopped            = false;
+
+  public static void main(String[] args) throws Exception
+  {
+    SoakTest soakTest = new SoakTest();
+    for (String arg : args)
+    {
+      int equals = arg.indexOf('=');
+      if (equals < 1)
+        throw new IllegalArgumentException("Expected name=value, got " + arg);
+      String name = arg.substring(0, equals);
+      if (DEFAULTS.containsKey(name))
+        soakTest.options.put(name, arg.substring(equals + 1));
+      else
+        soakTest.processorOptions.put(name, arg.substring(equals + 1));
+    }
+    List<String> failures = soakTest.run();
+    for (String failure : failures)
+      System.out.println("FAILED: " + failure);
+    System.exit(failures.isEmpty() ? 0 : 1);
+  }
+
+  private List<String> run() throws Exception
+  {
+    int tracks = Integer.parseInt(options.get("tracks"));
+    int threads = Integer.parseInt(options.get("threads"));
+    double rate = Double.parseDouble(options.get("rate"));
+    long duration = parseDuration(options.get("duration"));
+    long warmup = parseDuration(options.get("warmup"));
+    long report = parseDuration(options.get("report"));
+    System.out.println("Soak test " + options + " " + processorOptions);
+
+    processor = createProcessor();
+    listenToCollections();
+    for (int i = 0; i < threads; i++)
+      feeders.add(new Feeder(i, threads, tracks, rate / threads));
+    for (Feeder feeder : feeders)
+      feeder.start();
+
+    List<String> failures = new ArrayList<>();
+    try
+    {
+      Interval total = measure(warmup, report, duration);
+      stopped = true;
+      for (Feeder feeder : feeders)
+        feeder.join();
+      if (total != null)
+        summarize(total, failures);
+    }
+    finally
+    {
+      stopped = true;
+      if (processor != null)
+        processor.shutdown();
+    }
+    return failures;
+  }
+
+  private TimetreeProcessor createProcessor() throws Exception
+  {
+    TimetreeProcessor timetreeProcessor = new TimetreeProcessor(new TimetreeProcessorDefinition());
+    timetreeProcessor.setMessaging(StubGeoEvents.messaging());
+    timetreeProcessor.setId("soak-test");
+    String window = options.get("window");
+    if (window.chars().allMatch(Character::isDigit))
+    {
+      timetreeProcessor.getProperty(IS_DELAY_COUNT).setValue(true);
+      timetreeProcessor.getProperty(DELAY_VALUE).setValue(Long.parseLong(window));
+    }
+    else
+    {
+      timetreeProcessor.getProperty(IS_DELAY_COUNT).setValue(false);
+      timetreeProcessor.getProperty(DELAY_VALUE).setValue(TimeUnit.MILLISECONDS.toSeconds(parseDuration(window)));
+      timetreeProcessor.getProperty(DELAY_VALUE_UNITS).setValue(TimeUnit.SECONDS.name());
+    }
+    for (Map.Entry<String, String> option : processorOptions.entrySet())
+    {
+      Property property = timetreeProcessor.getProperty(option.getKey());
+      if (property == null)
+        throw new IllegalArgumentException("Unknown option " + option.getKey());
+      property.setValue(convert(property, option.getValue()));
+    }
+    timetreeProcessor.afterPropertiesSet();
+    return timetreeProcessor;
+  }
+
+  private static Object convert(Property property, String value)
+  {
+    switch (property.getDefinition().getType())
+    {
+      case Boolean:
+        return Boolean.valueOf(value);
+      case Integer:
+        return Integer.valueOf(value);
+      case Long:
+        return Long.valueOf(value);
+      case Short:
+        return Short.valueOf(value);
+      case Double:
+        return Double.valueOf(value);
+      default:
+        return value;
+    }
+  }
+
+  /**
+   * Prints a line per report interval until the duration is over and returns the totals from the end of the warm-up,
+   * or null when the run ended before it.
+   */
+  private Interval measure(long warmup, long report, long duration)
+  {
+    TimetreeMetrics metrics = processor.getMetrics();
+    long start = System.nanoTime();
+    long end = start + TimeUnit.MILLISECONDS.toNanos(duration);
+    long measuredFrom = start + TimeUnit.MILLISECONDS.toNanos(warmup);
+    Interval total = null;
+    Interval interval = new Interval();
+    System.out.println(" elapsed  events/s  p50 us  p99 us p99.9 us    tracks   vertices   heap MB    gc  gc ms  alloc B/event");
+    for (long due = start; due < end;)
+    {
+      due = Math.min(due + TimeUnit.MILLISECONDS.toNanos(report), end);
+      for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime())
+        LockSupport.parkNanos(wait);
+      interval.end(metrics);
+      metrics.reset();
+      interval.print(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+      if (interval.startNanos >= measuredFrom)
+      {
+        if (total == null)
+          total = new Interval(interval);
+        else
+          total.add(interval);
+      }
+      interval = new Interval();
+    }
+    return total;
+  }
+
+  private void summarize(Interval total, List<String> failures) throws Exception
+  {
+    // the metrics reference the tracks, no reference to them may outlive the processor
+    int tracks = processor.getMetrics().getTrackCount();
+    long vertices = processor.getMetrics().getVertexCount();
+    long estimatedBytes = processor.getMetrics().getEstimatedBytes();
+    long offHeapBytes = processor.getMetrics().getOffHeapBytes();
+    long usedBytes = usedHeapAfterGc();
+    processor.shutdown();
+    processor = null;
+    long retainedBytes = usedBytes - usedHeapAfterGc() + offHeapBytes;
+
+    double seconds = total.nanos / 1e9;
+    double throughput = total.events / seconds;
+    double gcPercent = 100.0 * total.gcMillis / (seconds * 1000);
+    double bytesPerTrack = (tracks > 0) ? (double) retainedBytes / tracks : 0;
+    double bytesPerVertex = (vertices > 0) ? (double) retainedBytes / vertices : 0;
+    System.out.printf("Measured %.0f s: %.0f events/s, worst interval p50 %d us, p99 %d us, p99.9 %d us, %d duplicates and %d late events dropped%n", seconds, throughput, total.p50, total.p99, total.p999, total.duplicates, total.late);
+    System.out.printf("GC: %d collections, %d ms (%.2f%% of the time), longest %d ms, %.1f bytes allocated per event%n", total.gcCount, total.gcMillis, gcPercent, longestCollection.get(), total.allocatedPerEvent());
+    System.out.printf("Retained: %d tracks, %d vertices, %.1f MB (%.1f MB off-heap, %.1f MB estimated by the processor), %.0f bytes per track, %.1f bytes per vertex%n", tracks, vertices, retainedBytes / 1048576.0, offHeapBytes / 1048576.0, estimatedBytes / 1048576.0, bytesPerTrack, bytesPerVertex);
+
+    check(failures, "throughput " + Math.round(throughput) + " events/s", throughput, "minThroughput", true);
+    check(failures, "p99 " + total.p99 + " us", total.p99, "maxP99", false);
+    check(failures, "retained " + Math.round(bytesPerTrack) + " bytes per track", bytesPerTrack, "maxBytesPerTrack", false);
+    check(failures, "retained " + Math.round(bytesPerVertex) + " bytes per vertex", bytesPerVertex, "maxBytesPerVertex", false);
+    check(failures, String.format("GC time %.2f%%", gcPercent), gcPercent, "maxGcPercent", false);
+    check(failures, "longest collection " + longestCollection.get() + " ms", longestCollection.get(), "maxGcMillis", false);
+  }
+
+  private void check(List<String> failures, String measured, double value, String limitName, boolean minimum)
+  {
+    double limit = Double.parseDouble(options.get(limitName));
+    if (limit > 0 && (minimum ? value < limit : value > limit))
+      failures.add(measured + ", " + limitName + "=" + options.get(limitName));
+  }
+
+  /**
+   * Collects until the heap in use stops shrinking, since a single System.gc() may leave garbage behind.
+   */
+  private static long usedHeapAfterGc() throws InterruptedException
+  {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    long used = Long.MAX_VALUE;
+    for (int i = 0; i < 10; i++)
+    {
+      System.gc();
+      Thread.sleep(100);
+      long after = memory.getHeapMemoryUsage().getUsed();
+      if (after >= used)
+        break;
+      used = after;
+    }
+    return used;
+  }
+
+  private void listenToCollections()
+  {
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+    {
+      if (!(collector instanceof NotificationEmitter))
+        continue;
+      ((NotificationEmitter) collector).addNotificationListener((notification, handback) ->
+        {
+          if (!stopped && GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+          {
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            longestCollection.accumulateAndGet(info.getGcInfo().getDuration(), Math::max);
+          }
+        }, null, null);
+    }
+  }
+
+  /**
+   * Milliseconds of a duration like 500ms, 30s, 10m or 2h, a plain number is in milliseconds.
+   */
+  private static long parseDuration(String value)
+  {
+    String trimmed = value.trim();
+    if (trimmed.endsWith("ms"))
+      return Long.parseLong(trimmed.substring(0, trimmed.length() - 2));
+    switch (trimmed.charAt(trimmed.length() - 1))
+    {
+      case 's':
+        return TimeUnit.SECONDS.toMillis(Long.parseLong(trimmed.substring(0, trimmed.length() - 1)));
+      case 'm':
+        return TimeUnit.MINUTES.toMillis(Long.parseLong(trimmed.substring(0, trimmed.length() - 1)));
+      case 'h':
+        return TimeUnit.HOURS.toMillis(Long.parseLong(trimmed.substring(0, trimmed.length() - 1)));
+      default:
+        return Long.parseLong(trimmed);
+    }
+  }
+
+  /**
+   * Counters of a report interval, or the sum of the intervals after the warm-up with the worst percentiles.
+   */
+  private final class Interval
+  {
+    private final long startNanos;
+    private final long startEvents;
+    private final long startGcCount;
+    private final long startGcMillis;
+    private final long startAllocated;
+    private long       nanos;
+    private long       events;
+    private long       gcCount;
+    private long       gcMillis;
+    private long       allocated;
+    private long       p50;
+    private long       p99;
+    private long       p999;
+    private long       duplicates;
+    private long       late;
+    private int        tracks;
+    private long       vertices;
+    private long       heapBytes;
+
+    Interval()
+    {
+      startNanos = System.nanoTime();
+      startEvents = events();
+      startGcCount = gcCount();
+      startGcMillis = gcMillis();
+      startAllocated = allocated();
+    }
+
+    Interval(Interval first)
+    {
+      startNanos = first.startNanos;
+      startEvents = first.startEvents;
+      startGcCount = first.startGcCount;
+      startGcMillis = first.startGcMillis;
+      startAllocated = first.startAllocated;
+      add(first);
+    }
+
+    void end(TimetreeMetrics metrics)
+    {
+      nanos = System.nanoTime() - startNanos;
+      events = events() - startEvents;
+      gcCount = gcCount() - startGcCount;
+      gcMillis = gcMillis() - startGcMillis;
+      allocated = allocated() - startAllocated;
+      p50 = metrics.getProcessLatency50();
+      p99 = metrics.getProcessLatency99();
+      p999 = metrics.getProcessLatency999();
+      duplicates = metrics.getDuplicatesDropped();
+      late = metrics.getLateEventsDropped();
+      tracks = metrics.getTrackCount();
+      vertices = metrics.getVertexCount();
+      heapBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    void add(Interval interval)
+    {
+      nanos += interval.nanos;
+      events += interval.events;
+      gcCount += interval.gcCount;
+      gcMillis += interval.gcMillis;
+      allocated += interval.allocated;
+      p50 = Math.max(p50, interval.p50);
+      p99 = Math.max(p99, interval.p99);
+      p999 = Math.max(p999, interval.p999);
+      duplicates += interval.duplicates;
+      late += interval.late;
+    }
+
+    double allocatedPerEvent()
+    {
+      return (events > 0) ? (double) allocated / events : 0;
+    }
+
+    void print(long elapsedSeconds)
+    {
+      System.out.printf("%7ds %9.0f %7d %7d %8d %9d %10d %9.1f %5d %6d %14.1f%n", elapsedSeconds, events / (nanos / 1e9), p50, p99, p999, tracks, vertices, heapBytes / 1048576.0, gcCount, gcMillis, allocatedPerEvent());
+    }
+
+    private long events()
+    {
+      return SoakTest.this.events.sum();
+    }
+
+    private long gcCount()
+    {
+      long count = 0;
+      for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        count += Math.max(0, collector.getCollectionCount());
+      return count;
+    }
+
+    private long gcMillis()
+    {
+      long millis = 0;
+      for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        millis += Math.max(0, collector.getCollectionTime());
+      return millis;
+    }
+
+    /**
+     * Bytes allocated by the feeding threads, which includes the events they create.
+     */
+    private long allocated()
+    {
+      com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      long bytes = 0;
+      for (Feeder feeder : feeders)
+        bytes += Math.max(0, threads.getThreadAllocatedBytes(feeder.getId()));
+      return bytes;
+    }
+  }
+
+  /**
+   * Reports the tracks i with i % threads == index in turn, paced to its share of the rate. The first pass reports every
+   * track, the idle ones are skipped after it. Tracks take a random walk from a random start.
+   */
+  private final class Feeder extends Thread
+  {
+    private final double           rate;
+    private final int[]            trackIndexes;
+    private final boolean[]        idle;
+    private final double[]         x;
+    private final double[]         y;
+    private final long[]           times;
+    private final long             jitter;
+    private final double           outOfOrder;
+    private final long             maxDelay;
+    private final double           duplicates;
+    private final SplittableRandom random;
+
+    Feeder(int index, int threads, int tracks, double rate)
+    {
+      super("soak-test-feeder-" + index);
+      setDaemon(true);
+      this.rate = rate;
+      random = new SplittableRandom(index);
+      jitter = parseDuration(options.get("jitter"));
+      outOfOrder = Double.parseDouble(options.get("outOfOrder"));
+      maxDelay = Math.max(1, parseDuration(options.get("maxDelay")));
+      duplicates = Double.parseDouble(options.get("duplicates"));
+      double idleShare = Double.parseDouble(options.get("idle"));
+      int count = (tracks - index + threads - 1) / threads;
+      trackIndexes = new int[count];
+      idle = new boolean[count];
+      x = new double[count];
+      y = new double[count];
+      times = new long[count];
+      for (int i = 0; i < count; i++)
+      {
+        trackIndexes[i] = index + i * threads;
+        idle[i] = random.nextDouble() < idleShare;
+        x[i] = random.nextDouble(-180, 180);
+        y[i] = random.nextDouble(-80, 80);
+      }
+    }
+
+    @Override
+    public void run()
+    {
+      try
+      {
+        long start = System.nanoTime();
+        long sent = 0;
+        long reports = 0;
+        boolean firstPass = true;
+        while (!stopped)
+        {
+          for (int i = 0; i < trackIndexes.length && !stopped; i++)
+          {
+            if (idle[i] && !firstPass)
+              continue;
+            sent += report(i);
+            if (rate > 0 && ++reports % REPORTS_PER_PACING == 0)
+            {
+              long wait = start + (long) (sent * 1e9 / rate) - System.nanoTime();
+              if (wait > 0)
+                LockSupport.parkNanos(wait);
+            }
+          }
+          firstPass = false;
+        }
+      }
+      catch (Exception e)
+      {
+        e.printStackTrace();
+        stopped = true;
+      }
+    }
+
+    /**
+     * Sends a report of the i-th track, or two when it is duplicated, and returns the number of events sent.
+     */
+    private int report(int i) throws Exception
+    {
+      long time = System.currentTimeMillis();
+      if (jitter > 0)
+        time += random.nextLong(-jitter, jitter + 1);
+      if (times[i] > 0 && random.nextDouble() < outOfOrder)
+        time = times[i] - 1 - random.nextLong(maxDelay);
+      else
+        times[i] = Math.max(times[i], time);
+      x[i] += random.nextDouble(-0.001, 0.001);
+      y[i] += random.nextDouble(-0.001, 0.001);
+      int sent = send(i, time);
+      if (random.nextDouble() < duplicates)
+        sent += send(i, time);
+      return sent;
+    }
+
+    private int send(int i, long time) throws Exception
+    {
+      processor.process(StubGeoEvents.create("track-" + trackIndexes[i], time, x[i], y[i]));
+      events.increment();
+      return 1;
+    }
+  }
+}
@@ -0,0 +1,186 @@
+package com.esri.geoevent.processor.timetree.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.esri.core.geometry.MapGeometry;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.SpatialReference;
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.core.geoevent.GeoEventDefinition;
+import com.esri.ges.messaging.EventDestination;
+import com.esri.ges.messaging.GeoEventCreator;
+import com.esri.ges.messaging.GeoEventProducer;
+import com.esri.ges.messaging.Messaging;
+
+/**
+ * Minimal stand-ins for the GeoEvent Server runtime so the processor can be driven outside of the server. Only the
+ * methods the processor calls are backed by state, everything else returns a default value.
+ */
+public final class StubGeoEvents
+{
+  public static final SpatialReference    WGS84               = SpatialReference.create(4326);
+  public static final String              DEFINITION          = "9a3ad3cc-0a39-4b4b-8d5a-5b0b6cbbaf35";
+
+  private static final LongAdder          SENT                = new LongAdder();
+  private static final GeoEventDefinition GEOEVENT_DEFINITION = definition();
+
+  private StubGeoEvents()
+  {
+  }
+
+  /**
+   * Creates a point event. The same time is returned for RECEIVED_TIME, TIME_START and TIME_END.
+   */
+  public static GeoEvent create(String trackId, long time, double x, double y)
+  {
+    return new MutableGeoEvent(trackId, new Date(time), new MapGeometry(new Point(x, y), WGS84)).proxy();
+  }
+
+  public static long sentCount()
+  {
+    return SENT.sum();
+  }
+
+  public static Messaging messaging()
+  {
+    return proxy(Messaging.class, (name, args) ->
+      {
+        switch (name)
+        {
+          case "createGeoEventCreator":
+            return proxy(GeoEventCreator.class, (creatorMethod, creatorArgs) -> copy((Object[]) creatorArgs[1]));
+          case "createGeoEventProducer":
+            return producer((EventDestination) args[0]);
+          default:
+            return null;
+        }
+      });
+  }
+
+  private static GeoEventDefinition definition()
+  {
+    return proxy(GeoEventDefinition.class, (name, args) ->
+      {
+        switch (name)
+        {
+          case "getGuid":
+            return DEFINITION;
+          case "getName":
+            return "timetree-benchmark";
+          case "getIndexOf":
+            return -1;
+          default:
+            return null;
+        }
+      });
+  }
+
+  private static GeoEvent copy(Object[] fields)
+  {
+    return new MutableGeoEvent((String) fields[0], (Date) fields[1], (MapGeometry) fields[2]).proxy();
+  }
+
+  private static GeoEventProducer producer(EventDestination destination)
+  {
+    return proxy(GeoEventProducer.class, (name, args) ->
+      {
+        switch (name)
+        {
+          case "send":
+            SENT.increment();
+            return null;
+          case "getEventDestination":
+            return destination;
+          case "getStatusDetails":
+            return "";
+          case "isConnected":
+            return Boolean.TRUE;
+          default:
+            return null;
+        }
+      });
+  }
+
+  private interface Handler
+  {
+    Object invoke(String method, Object[] args);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, Handler handler)
+  {
+    return (T) Proxy.newProxyInstance(StubGeoEvents.class.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) ->
+      {
+        switch (method.getName())
+        {
+          case "hashCode":
+            return System.identityHashCode(proxy);
+          case "equals":
+            return proxy == args[0];
+          case "toString":
+            return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+          default:
+            Object result = handler.invoke(method.getName(), args);
+            return (result == null) ? defaultValue(method.getReturnType()) : result;
+        }
+      });
+  }
+
+  private static Object defaultValue(Class<?> type)
+  {
+    if (type == boolean.class)
+      return Boolean.FALSE;
+    if (type == long.class)
+      return 0L;
+    if (type == double.class)
+      return 0d;
+    if (type == int.class)
+      return 0;
+    if (type == short.class)
+      return (short) 0;
+    return null;
+  }
+
+  private static final class MutableGeoEvent
+  {
+    private final String trackId;
+    private final Date   time;
+    private MapGeometry  geometry;
+
+    MutableGeoEvent(String trackId, Date time, MapGeometry geometry)
+    {
+      this.trackId = trackId;
+      this.time = time;
+      this.geometry = geometry;
+    }
+
+    GeoEvent proxy()
+    {
+      return StubGeoEvents.proxy(GeoEvent.class, (name, args) ->
+        {
+          switch (name)
+          {
+            case "getGeoEventDefinition":
+              return GEOEVENT_DEFINITION;
+            case "getTrackId":
+              return trackId;
+            case "getReceivedTime":
+            case "getStartTime":
+            case "getEndTime":
+              return time;
+            case "getGeometry":
+              return geometry;
+            case "setGeometry":
+              geometry = (MapGeometry) args[0];
+              return null;
+            case "getAllFields":
+              return new Object[] { trackId, time, geometry };
+            default:
+              return null;
+          }
+        });
+    }
+  }
+}
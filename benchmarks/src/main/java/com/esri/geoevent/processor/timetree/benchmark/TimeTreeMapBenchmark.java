@@ -0,0 +1,85 @@
+package com.esri.geoevent.processor.timetree.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esri.core.geometry.MapGeometry;
+import com.esri.core.geometry.Point;
+import com.esri.geoevent.processor.timetree.TimeTreeMap;
+import com.esri.geoevent.processor.timetree.TimetreeKey;
+
+/**
+ * Single track history costs: inserting into a full count window and building the output line for count and time
+ * windows of increasing size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimeTreeMapBenchmark
+{
+  private static final long          HOUR      = TimeUnit.HOURS.toMillis(1);
+  private static final TimetreeKey   TRACK     = new TimetreeKey(StubGeoEvents.DEFINITION, "benchmark");
+  // alternate between two locations so consecutive points are never duplicates
+  private static final MapGeometry[] LOCATIONS = { new MapGeometry(new Point(0, 0), StubGeoEvents.WGS84), new MapGeometry(new Point(1, 1), StubGeoEvents.WGS84) };
+
+  @Param({ "10", "100", "1000", "10000" })
+  public int                         windowSize;
+
+  private TimeTreeMap                 countWindow;
+  private TimeTreeMap                 timeWindow;
+  private long                        time;
+
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    long now = System.currentTimeMillis();
+    countWindow = new TimeTreeMap(TRACK, windowSize);
+    timeWindow = new TimeTreeMap(TRACK, HOUR);
+    for (int i = 0; i < windowSize; i++)
+    {
+      countWindow.put(i, location(i));
+      timeWindow.put(now - windowSize + i, location(i));
+    }
+    time = windowSize;
+  }
+
+  @Benchmark
+  public int put()
+  {
+    countWindow.put(time, location(time));
+    time++;
+    return countWindow.size();
+  }
+
+  @Benchmark
+  public MapGeometry getGeometryByCount()
+  {
+    return countWindow.getGeometryByCount(windowSize);
+  }
+
+  @Benchmark
+  public MapGeometry getGeometryByTime()
+  {
+    return timeWindow.getGeometryByTime(HOUR);
+  }
+
+  private static MapGeometry location(long time)
+  {
+    return LOCATIONS[(int) (time & 1)];
+  }
+}
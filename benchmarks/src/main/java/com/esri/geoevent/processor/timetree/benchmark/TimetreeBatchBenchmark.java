@@ -0,0 +1,108 @@
+package com.esri.geoevent.processor.timetree.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.geoevent.processor.timetree.TimetreeProcessor;
+import com.esri.geoevent.processor.timetree.TimetreeProcessorDefinition;
+import com.esri.geoevent.processor.timetree.TimetreeProperties;
+
+/**
+ * Time to absorb a burst of events, e.g. a feed catching up after a reconnect: every track id reports several times in
+ * a row. Compares calling process() for each event with processBatch() for the whole burst, with a line returned for
+ * every event and with coalesced output sending a track's line every 10 updates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TimetreeBatchBenchmark implements TimetreeProperties
+{
+  @Param({ "100", "10000" })
+  public int                tracks;
+
+  @Param({ "1", "20" })
+  public int                reportsPerTrack;
+
+  @Param({ "false", "true" })
+  public boolean            coalesce;
+
+  private TimetreeProcessor processor;
+  private String[]          trackIds;
+  private List<GeoEvent>    burst;
+  private long              time;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception
+  {
+    processor = new TimetreeProcessor(new TimetreeProcessorDefinition());
+    processor.setMessaging(StubGeoEvents.messaging());
+    processor.setId("benchmark");
+    processor.getProperty(IS_DELAY_COUNT).setValue(true);
+    processor.getProperty(DELAY_VALUE).setValue(100L);
+    processor.getProperty(COALESCE_OUTPUT).setValue(coalesce);
+    processor.getProperty(EMIT_UPDATES).setValue(10);
+    processor.afterPropertiesSet();
+
+    trackIds = new String[tracks];
+    for (int i = 0; i < tracks; i++)
+      trackIds[i] = "track-" + i;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    processor.shutdown();
+  }
+
+  /**
+   * The events get their line as geometry, so every burst is made of new events.
+   */
+  @Setup(Level.Invocation)
+  public void nextBurst()
+  {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    burst = new ArrayList<>(tracks * reportsPerTrack);
+    for (int report = 0; report < reportsPerTrack; report++)
+    {
+      time += 1000;
+      for (String trackId : trackIds)
+        burst.add(StubGeoEvents.create(trackId, time, random.nextDouble(), random.nextDouble()));
+    }
+  }
+
+  @Benchmark
+  public int processEach() throws Exception
+  {
+    int lines = 0;
+    for (GeoEvent geoEvent : burst)
+      if (processor.process(geoEvent) != null)
+        lines++;
+    return lines;
+  }
+
+  @Benchmark
+  public int processBatch()
+  {
+    return processor.processBatch(burst).size();
+  }
+}
@@ -0,0 +1,122 @@
+package com.esri.geoevent.processor.timetree.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.geoevent.processor.timetree.TimetreeProcessor;
+import com.esri.geoevent.processor.timetree.TimetreeProcessorDefinition;
+import com.esri.geoevent.processor.timetree.TimetreeProperties;
+
+/**
+ * End to end cost of TimetreeProcessor.process() for count windows across track cardinalities, with the histories on
+ * the heap and off-heap. Each thread spreads its events uniformly over track ids of its own, so the process1Thread to
+ * process8Threads results show how the throughput scales with the number of threads calling process() concurrently
+ * when the threads do not contend on a track.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TimetreeProcessorBenchmark implements TimetreeProperties
+{
+  // track ids per thread
+  @Param({ "1", "1000", "100000" })
+  public int                  tracks;
+
+  @Param({ "10", "1000" })
+  public int                  windowSize;
+
+  @Param({ "false", "true" })
+  public boolean              offHeap;
+
+  private TimetreeProcessor   processor;
+  private final AtomicInteger threadIndexes = new AtomicInteger();
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception
+  {
+    processor = new TimetreeProcessor(new TimetreeProcessorDefinition());
+    processor.setMessaging(StubGeoEvents.messaging());
+    processor.setId("benchmark");
+    processor.getProperty(IS_DELAY_COUNT).setValue(true);
+    processor.getProperty(DELAY_VALUE).setValue((long) windowSize);
+    processor.getProperty(OFF_HEAP_STORAGE).setValue(offHeap);
+    processor.afterPropertiesSet();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    processor.shutdown();
+  }
+
+  @State(Scope.Thread)
+  public static class Feed
+  {
+    private long     time;
+    private String[] trackIds;
+
+    @Setup(Level.Trial)
+    public void setup(TimetreeProcessorBenchmark benchmark)
+    {
+      int threadIndex = benchmark.threadIndexes.getAndIncrement();
+      trackIds = new String[benchmark.tracks];
+      for (int i = 0; i < trackIds.length; i++)
+        trackIds[i] = "track-" + threadIndex + "-" + i;
+    }
+
+    GeoEvent next()
+    {
+      time++;
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      return StubGeoEvents.create(trackIds[random.nextInt(trackIds.length)], time, random.nextDouble(), random.nextDouble());
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public GeoEvent process1Thread(Feed feed) throws Exception
+  {
+    return processor.process(feed.next());
+  }
+
+  @Benchmark
+  @Threads(2)
+  public GeoEvent process2Threads(Feed feed) throws Exception
+  {
+    return processor.process(feed.next());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public GeoEvent process4Threads(Feed feed) throws Exception
+  {
+    return processor.process(feed.next());
+  }
+
+  @Benchmark
+  @Threads(8)
+  public GeoEvent process8Threads(Feed feed) throws Exception
+  {
+    return processor.process(feed.next());
+  }
+}
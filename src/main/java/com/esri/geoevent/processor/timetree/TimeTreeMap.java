@@ -1,172 +1,1462 @@
 package com.esri.geoevent.processor.timetree;
 
-import java.util.Map;
-import java.util.TreeMap;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongSupplier;
 
 import com.esri.core.geometry.Geometry;
 import com.esri.core.geometry.MapGeometry;
+import com.esri.core.geometry.OperatorImportFromESRIShape;
 import com.esri.core.geometry.Point;
 import com.esri.core.geometry.Polyline;
+import com.esri.core.geometry.ShapeImportFlags;
 import com.esri.core.geometry.SpatialReference;
+import com.esri.ges.core.geoevent.GeoEvent;
 import com.esri.ges.framework.i18n.BundleLogger;
 import com.esri.ges.framework.i18n.BundleLoggerFactory;
 
-public class TimeTreeMap extends TreeMap<Long, TimetreeGeoEvent>
+/**
+ * Time ordered history of the point locations of a single track. Vertices are held in primitive columns (time and
+ * interleaved x/y) of a TimetreeVertexStore, on the heap or off-heap, arranged as a growable ring buffer so expiring
+ * the oldest vertex is O(1) and no per-vertex objects are retained. The retained columns are the line itself: output
+ * geometries are bulk copied from them as an ESRI shape instead of being rebuilt vertex by vertex. With a precision set,
+ * all but the most recent vertices are sealed in compressed TimetreeVertexChunks.
+ */
+public class TimeTreeMap
 {
-  private static final long         serialVersionUID = 5357525077241680115L;
-  private static final BundleLogger LOGGER           = BundleLoggerFactory.getLogger(TimetreeProcessor.class);
+  private static final BundleLogger                        LOGGER           = BundleLoggerFactory.getLogger(TimetreeProcessor.class);
+  public static final int                                  MIN_CAPACITY     = 8;
+  private static final int                                 SHAPE_POLYLINE   = 3;
+  private static final int                                 SHAPE_HEADER     = 48;
+  // estimated fixed cost of a track (this object, its column array headers and its registry entry) and of one slot
+  private static final int                                 TRACK_BYTES      = 176;
+  private static final int                                 VERSIONS_BYTES   = 48;
+  // estimated cost of the snapshot template, an array and a field value per field
+  private static final int                                 FIELDS_BYTES     = 16;
+  private static final int                                 FIELD_BYTES      = 40;
+  // optimistic reads of a line before a snapshot reader waits for the writer
+  private static final int                                 OPTIMISTIC_READS = 4;
 
-  private short                     maxSize          = -1;
-  private long                      maxAge           = -1;
-  private SpatialReference          spatialReference = null;
+  private static final ThreadLocal<ByteBuffer>             SHAPE_BUFFER     = new ThreadLocal<ByteBuffer>();
 
-  // public TimeTreeMap()
-  // {
-  // super();
-  // }
+  private static final AtomicLongFieldUpdater<TimeTreeMap> ACCOUNTED_BYTES  = AtomicLongFieldUpdater.newUpdater(TimeTreeMap.class, "accountedBytes");
+  private static final AtomicLongFieldUpdater<TimeTreeMap> ACCOUNTED_POINTS = AtomicLongFieldUpdater.newUpdater(TimeTreeMap.class, "accountedPoints");
 
-  public TimeTreeMap(short maxSize)
+  private final TimetreeKey                                trackKey;
+  private int                                              maxSize          = -1;
+  private long                                             maxAge           = -1;
+  private LongSupplier                                     clock            = System::currentTimeMillis;
+  private double                                           toleranceSquared = 0;
+  private SpatialReference                                 spatialReference = null;
+
+  private TimetreeVertexStore                              store            = new TimetreeHeapStore(MIN_CAPACITY);
+  private int                                              mask             = MIN_CAPACITY - 1;
+  private int                                              head             = 0;
+  private int                                              size             = 0;
+  // the vertices before the ring, when compressed
+  private TimetreeVertexChunks                             chunks           = null;
+
+  // streaming simplification, enabled by a tolerance above 0: vertices flagged as kept in the store, the last kept vertex
+  // (the anchor) and the cone of directions from the anchor that pass within the tolerance of every vertex appended since
+  private double                                           lineTolerance    = 0;
+  private double                                           anchorX          = 0;
+  private double                                           anchorY          = 0;
+  private boolean                                          coneOpen         = true;
+  private double                                           coneDirection    = 0;
+  private double                                           coneLow          = 0;
+  private double                                           coneHigh         = 0;
+  private double                                           coneDistance     = 0;
+
+  // downsampling tiers: vertices older than a tier's age are thinned to one per tier interval; per tier the time of the
+  // newest vertex it already thinned, so each pass only visits the vertices that aged into the tier since
+  private long[]                                           tierAges         = null;
+  private long[]                                           tierIntervals    = null;
+  private long[]                                           tierTimes        = null;
+
+  private TimetreeExpiryWheel                              expiryWheel      = null;
+  private long                                             expiryTime       = 0;
+  private volatile boolean                                 retired          = false;
+  // the size and the vertices included in the registry's estimate and vertex count, -1 once released from them
+  private volatile long                                    accountedBytes   = 0;
+  private volatile long                                    accountedPoints  = 0;
+  private TimetreeMetrics                                  metrics          = null;
+  private TimetreeDelta                                    delta            = null;
+  private TimetreeStats                                    stats            = null;
+
+  private GeoEvent                                         pendingEvent     = null;
+  private int                                              pendingUpdates   = 0;
+  private boolean                                          queued           = false;
+
+  // with snapshots, writers hold the write lock while they change the history so snapshot readers can copy the line
+  // optimistically without the monitor
+  private StampedLock                                      versions         = null;
+  private volatile Object[]                                latestFields     = null;
+
+  public TimeTreeMap(TimetreeKey trackKey, int maxSize)
   {
-    super();
+    this.trackKey = trackKey;
     this.maxSize = maxSize;
   }
 
-  public TimeTreeMap(long maxAge)
+  public TimeTreeMap(TimetreeKey trackKey, long maxAge)
   {
-    super();
+    this.trackKey = trackKey;
     this.maxAge = maxAge;
   }
 
-  @Override
-  public TimetreeGeoEvent put(Long key, TimetreeGeoEvent value)
+  /**
+   * Adds the location of a point geometry at the given time, this is the path process() takes. Only the time and the
+   * coordinates are kept, no object per event.
+   */
+  public void put(long time, MapGeometry mapGeometry)
   {
-    TimetreeGeoEvent result = null;
-    if (value != null && value.getGeoEvent() != null && value.getGeoEvent().getGeometry() != null && Geometry.Type.Point.equals(value.getGeoEvent().getGeometry().getGeometry().getType()))
+    long stamp = beginWrite();
+    try
     {
-      LOGGER.trace("Adding to tree[{2}]: {0},{1}", key, value, this.keySet().size());
-      result = super.put(key, value);
-      if (spatialReference == null)
-      {
-        this.spatialReference = value.getGeoEvent().getGeometry().getSpatialReference();
+      add(time, mapGeometry);
+      trim();
+    }
+    finally
+    {
+      endWrite(stamp);
+    }
+  }
+
+  /**
+   * Adds the locations of a burst of events, in time order, and trims the history once for all of them. This is the
+   * path processBatch() takes with coalesced output, where no line is built in between.
+   */
+  public void putAll(long[] times, MapGeometry[] mapGeometries, int count)
+  {
+    long stamp = beginWrite();
+    try
+    {
+      for (int i = 0; i < count; i++)
+        add(times[i], mapGeometries[i]);
+      trim();
+    }
+    finally
+    {
+      endWrite(stamp);
+    }
+  }
+
+  private void add(long time, MapGeometry mapGeometry)
+  {
+    Geometry geometry = (mapGeometry != null) ? mapGeometry.getGeometry() : null;
+    if (geometry != null && Geometry.Type.Point.equals(geometry.getType()))
+    {
+      Point point = (Point) geometry;
+      add(time, point.getX(), point.getY(), mapGeometry.getSpatialReference());
+    }
+    else if (LOGGER.isDebugEnabled())
+    {
+      LOGGER.debug("Cant add event to cache, geometry is wrong type: {0}", mapGeometry);
+    }
+  }
+
+  private void add(long time, double x, double y, SpatialReference pointSpatialReference)
+  {
+    if (LOGGER.isTraceEnabled())
+      LOGGER.trace("Adding to tree[{0}]: {1},{2},{3}", size, time, x, y);
+    int index = insert(time, x, y);
+    if (tierTimes != null)
+      rewindTiers(time - 1);
+    if (spatialReference == null)
+    {
+      this.spatialReference = pointSpatialReference;
+      if (LOGGER.isTraceEnabled())
         LOGGER.trace("Set spatial reference: {0}", this.spatialReference);
+    }
+    index = removeDuplicate(index);
+    if (lineTolerance > 0 && index >= 0)
+      simplify(index);
+  }
+
+  private void trim()
+  {
+    if (maxSize > 0)
+    {
+      trimToMaxSize();
+      if (chunks != null)
+        seal();
+    }
+    else
+    {
+      expireVertices(clock.getAsLong());
+    }
+    shrink();
+  }
+
+  /**
+   * Removes the vertices that fell out of the time window as of the given time.
+   */
+  public void expire(long now)
+  {
+    long stamp = beginWrite();
+    try
+    {
+      expireVertices(now);
+    }
+    finally
+    {
+      endWrite(stamp);
+    }
+  }
+
+  private void expireVertices(long now)
+  {
+    if (maxAge >= 0)
+    {
+      while (size() > 0 && (now - getFirstTime()) > maxAge)
+      {
+        if (LOGGER.isTraceEnabled())
+          LOGGER.trace("Removing event from cache, time limit reached limit: {0}", getFirstTime());
+        removeFirst();
+        if (metrics != null)
+          metrics.vertexExpiredByAge();
+      }
+      if (tierAges != null)
+        downsample(now);
+      if (chunks != null)
+        seal();
+      shrink();
+    }
+  }
+
+  /**
+   * Writes the vertices to the buffer as the time column followed by the interleaved coordinates, both in at most two
+   * bulk runs. Compressed vertices are decoded in front of the others.
+   */
+  public void writeVertices(ByteBuffer buffer)
+  {
+    int sealed = sealedSize();
+    if (sealed == 0)
+    {
+      store.write(buffer, head, size);
+    }
+    else
+    {
+      int total = sealed + size;
+      int position = buffer.position();
+      chunks.write(buffer, position, total);
+      int timesOffset = position + (sealed << 3);
+      int coordinatesOffset = position + (total << 3) + (sealed << 4);
+      for (int i = 0; i < size; i++)
+      {
+        int slot = slot(i);
+        buffer.putLong(timesOffset + (i << 3), store.getTime(slot));
+        buffer.putDouble(coordinatesOffset + (i << 4), store.getX(slot));
+        buffer.putDouble(coordinatesOffset + (i << 4) + 8, store.getY(slot));
+      }
+      buffer.position(position + total * 24);
+    }
+  }
+
+  /**
+   * Reads vertices written by writeVertices(). An empty history takes them over in bulk, otherwise they are merged in
+   * by time.
+   */
+  public void readVertices(ByteBuffer buffer, int count)
+  {
+    long stamp = beginWrite();
+    try
+    {
+      mergeVertices(buffer, count);
+    }
+    finally
+    {
+      endWrite(stamp);
+    }
+  }
+
+  private void mergeVertices(ByteBuffer buffer, int count)
+  {
+    if (sealedSize() > 0)
+      thaw();
+    if (size == 0)
+    {
+      int capacity = MIN_CAPACITY;
+      while (capacity < count)
+        capacity <<= 1;
+      if (capacity != mask + 1)
+        resize(capacity);
+      head = 0;
+      store.read(buffer, count);
+      size = count;
+      changed(0);
+      if (stats != null)
+        stats.reset(this);
+    }
+    else
+    {
+      int timesOffset = buffer.position();
+      int coordinatesOffset = timesOffset + (count << 3);
+      for (int i = 0; i < count; i++)
+        insert(buffer.getLong(timesOffset + (i << 3)), buffer.getDouble(coordinatesOffset + (i << 4)), buffer.getDouble(coordinatesOffset + (i << 4) + 8));
+      buffer.position(coordinatesOffset + (count << 4));
+    }
+    if (lineTolerance > 0)
+    {
+      // simplification state is not part of a snapshot, keep every restored vertex and start over from the last one
+      for (int i = 0; i < size; i++)
+        store.setKept(slot(i), true);
+      if (size > 0)
+        resetCone(size - 1);
+    }
+    if (tierTimes != null)
+      rewindTiers(Long.MIN_VALUE);
+    if (maxSize > 0)
+      trimToMaxSize();
+    if (chunks != null)
+      seal();
+    shrink();
+  }
+
+  public MapGeometry getGeometryByCount(long count)
+  {
+    if (LOGGER.isTraceEnabled())
+      LOGGER.trace("Creating new geometry for count {0}.", count);
+    return getGeometry(startOfCount(count));
+  }
+
+  public MapGeometry getGeometryByTime(long rangeMiillis)
+  {
+    if (LOGGER.isTraceEnabled())
+      LOGGER.trace("Creating new geometry for time range {0} ms.", rangeMiillis);
+    return getGeometry(firstIndexAt(clock.getAsLong() - rangeMiillis));
+  }
+
+  /**
+   * Like getGeometryByCount() but only returns the vertices the line gained since the previous delta, see getDelta().
+   */
+  public MapGeometry getDeltaByCount(long count)
+  {
+    return getDelta(startOfCount(count));
+  }
+
+  /**
+   * Like getGeometryByTime() but only returns the vertices the line gained since the previous delta, see getDelta().
+   */
+  public MapGeometry getDeltaByTime(long rangeMillis)
+  {
+    return getDelta(firstIndexAt(clock.getAsLong() - rangeMillis));
+  }
+
+  /**
+   * Starts the next delta for the line from the given index. A simplified line changes at its end with every vertex,
+   * so it is always sent as a keyframe. A delta that only removes vertices gets an empty line.
+   */
+  private MapGeometry getDelta(int from)
+  {
+    int total = size();
+    if (from >= total)
+      return null;
+    int first = delta.next(from, total, lineTolerance > 0);
+    if (first < total)
+      return getGeometry(first);
+    return new MapGeometry(new Polyline(), spatialReference);
+  }
+
+  private int startOfCount(long count)
+  {
+    int total = size();
+    return (count < total) ? (int) (total - count) : 0;
+  }
+
+  private MapGeometry getGeometry(int from)
+  {
+    return (from < size()) ? importShape(toShape(from), this.spatialReference) : null;
+  }
+
+  private static MapGeometry importShape(ByteBuffer shape, SpatialReference spatialReference)
+  {
+    MapGeometry result = null;
+    try
+    {
+      Geometry polyline = OperatorImportFromESRIShape.local().execute(ShapeImportFlags.ShapeImportDefaults, Geometry.Type.Polyline, shape);
+      result = new MapGeometry(polyline, spatialReference);
+      if (LOGGER.isTraceEnabled())
+        LOGGER.trace("Returning new map geometry: ", result);
+    }
+    catch (Exception e)
+    {
+      if (LOGGER.isDebugEnabled())
+        LOGGER.debug("Failed to create geometry", e);
+      else
+        LOGGER.info("Failed to create geometry", e.getMessage());
+    }
+    return result;
+  }
+
+  /**
+   * Writes the vertices from the given index to the end of the history into a reusable polyline shape buffer. The ring
+   * is copied in at most two bulk runs, after the compressed vertices from the index on are decoded; only the bounding
+   * box needs a pass over the copied coordinates. A simplified line only gets the first and last vertex and the kept
+   * vertices between them.
+   */
+  private ByteBuffer toShape(int from)
+  {
+    int sealed = sealedSize();
+    ByteBuffer shape = shapeBuffer(SHAPE_HEADER + ((size() - from) << 4));
+    shape.position(SHAPE_HEADER);
+    if (from < sealed)
+      chunks.copyCoordinates(shape, from, lineTolerance > 0, size == 0);
+    int first = Math.max(0, from - sealed);
+    if (lineTolerance > 0)
+      copyKeptCoordinates(shape, first, from >= sealed);
+    else
+      store.copyCoordinates(shape, slot(first), size - first);
+    int length = shape.position();
+
+    double xmin = Double.POSITIVE_INFINITY;
+    double ymin = Double.POSITIVE_INFINITY;
+    double xmax = Double.NEGATIVE_INFINITY;
+    double ymax = Double.NEGATIVE_INFINITY;
+    for (int offset = SHAPE_HEADER; offset < length; offset += 16)
+    {
+      double x = shape.getDouble(offset);
+      double y = shape.getDouble(offset + 8);
+      xmin = Math.min(xmin, x);
+      xmax = Math.max(xmax, x);
+      ymin = Math.min(ymin, y);
+      ymax = Math.max(ymax, y);
+    }
+    return toShape(shape, (length - SHAPE_HEADER) >> 4, length, xmin, ymin, xmax, ymax);
+  }
+
+  /**
+   * Writes the kept vertices of the ring from the given index on and its last vertex, and with first the vertex at the
+   * index, into the shape buffer.
+   */
+  private void copyKeptCoordinates(ByteBuffer shape, int from, boolean first)
+  {
+    int offset = shape.position();
+    int last = size - 1;
+    for (int i = from; i <= last; i++)
+    {
+      int slot = slot(i);
+      if ((i == from && first) || i == last || store.isKept(slot))
+      {
+        shape.putDouble(offset, store.getX(slot));
+        shape.putDouble(offset + 8, store.getY(slot));
+        offset += 16;
+      }
+    }
+    shape.position(offset);
+  }
+
+  private ByteBuffer toShape(ByteBuffer shape, int count, int length, double xmin, double ymin, double xmax, double ymax)
+  {
+    shape.putInt(0, SHAPE_POLYLINE);
+    shape.putDouble(4, xmin);
+    shape.putDouble(12, ymin);
+    shape.putDouble(20, xmax);
+    shape.putDouble(28, ymax);
+    shape.putInt(36, 1);
+    shape.putInt(40, count);
+    shape.putInt(44, 0);
+    shape.position(0);
+    shape.limit(length);
+    return shape;
+  }
+
+  private static ByteBuffer shapeBuffer(int length)
+  {
+    ByteBuffer shape = SHAPE_BUFFER.get();
+    if (shape == null || shape.capacity() < length)
+    {
+      shape = ByteBuffer.allocate(Integer.highestOneBit(length - 1) << 1).order(ByteOrder.LITTLE_ENDIAN);
+      SHAPE_BUFFER.set(shape);
+    }
+    shape.clear();
+    return shape;
+  }
+
+  public int size()
+  {
+    return size + sealedSize();
+  }
+
+  private long beginWrite()
+  {
+    return (versions != null) ? versions.writeLock() : 0;
+  }
+
+  private void endWrite(long stamp)
+  {
+    if (versions != null)
+      versions.unlockWrite(stamp);
+  }
+
+  /**
+   * Estimated heap retained by this track, counting allocated rather than used slots.
+   */
+  public long estimateBytes()
+  {
+    return TRACK_BYTES + (trackIdLength() << 1) + ((tierTimes != null) ? tierTimes.length << 3 : 0) + store.getBytes() + ((chunks != null) ? chunks.getBytes() : 0) + ((stats != null) ? stats.getBytes() : 0) + ((versions != null) ? VERSIONS_BYTES : 0) + latestFieldsBytes();
+  }
+
+  private long latestFieldsBytes()
+  {
+    final Object[] fields = latestFields;
+    return (fields != null) ? FIELDS_BYTES + (long) fields.length * FIELD_BYTES : 0;
+  }
+
+  private int trackIdLength()
+  {
+    return (trackKey.getTrackId() != null) ? trackKey.getTrackId().length() : 0;
+  }
+
+  public long getAccountedBytes()
+  {
+    return Math.max(0, accountedBytes);
+  }
+
+  /**
+   * Replaces the size included in the registry's estimate and returns the change to add to the estimate, or 0 once the
+   * size was released. The registry releases the size under its stripe's monitor while the size may be accounted under
+   * the track's, both go through this one field so neither change is lost.
+   */
+  public long account(long bytes)
+  {
+    return account(ACCOUNTED_BYTES, bytes);
+  }
+
+  /**
+   * Returns the size to take off the registry's estimate, later calls to account() change nothing.
+   */
+  public long releaseAccountedBytes()
+  {
+    return Math.max(0, ACCOUNTED_BYTES.getAndSet(this, -1));
+  }
+
+  /**
+   * Replaces the number of vertices included in the registry's vertex count like account() does for the size.
+   */
+  public long accountPoints(long vertices)
+  {
+    return account(ACCOUNTED_POINTS, vertices);
+  }
+
+  public long releaseAccountedPoints()
+  {
+    return Math.max(0, ACCOUNTED_POINTS.getAndSet(this, -1));
+  }
+
+  private long account(AtomicLongFieldUpdater<TimeTreeMap> field, long value)
+  {
+    long accounted;
+    do
+    {
+      accounted = field.get(this);
+      if (accounted < 0)
+        return 0;
+    }
+    while (!field.compareAndSet(this, accounted, value));
+    return value - accounted;
+  }
+
+  public boolean isEmpty()
+  {
+    return size() == 0;
+  }
+
+  public void clear()
+  {
+    long stamp = beginWrite();
+    try
+    {
+      if (delta != null)
+        delta.changed(0);
+      if (stats != null)
+        stats.clear();
+      head = 0;
+      size = 0;
+      if (chunks != null)
+        chunks.clear();
+      if (tierTimes != null)
+        rewindTiers(Long.MIN_VALUE);
+      shrink();
+    }
+    finally
+    {
+      endWrite(stamp);
+    }
+  }
+
+  /**
+   * The time of the vertex at the index of the whole history. Compressed vertices are decoded from the vertex read last,
+   * or from the oldest one for an index before it, so walks from oldest to newest take constant time per vertex.
+   */
+  public long getTime(int index)
+  {
+    int sealed = sealedSize();
+    return (index < sealed) ? chunks.getTime(index) : timeAt(index - sealed);
+  }
+
+  public double getX(int index)
+  {
+    int sealed = sealedSize();
+    return (index < sealed) ? chunks.getX(index) : xAt(index - sealed);
+  }
+
+  public double getY(int index)
+  {
+    int sealed = sealedSize();
+    return (index < sealed) ? chunks.getY(index) : yAt(index - sealed);
+  }
+
+  public long getFirstTime()
+  {
+    return (sealedSize() > 0) ? chunks.getFirstTime() : timeAt(0);
+  }
+
+  public TimetreeKey getTrackKey()
+  {
+    return trackKey;
+  }
+
+  public SpatialReference getSpatialReference()
+  {
+    return spatialReference;
+  }
+
+  public void setSpatialReference(SpatialReference spatialReference)
+  {
+    this.spatialReference = spatialReference;
+  }
+
+  public int getMaxSize()
+  {
+    return maxSize;
+  }
+
+  public void setMaxSize(int maxSize)
+  {
+    this.maxSize = maxSize;
+  }
+
+  public long getMaxAge()
+  {
+    return maxAge;
+  }
+
+  public void setMaxAge(long maxAge)
+  {
+    this.maxAge = maxAge;
+  }
+
+  /**
+   * The clock time windows are measured against, the system clock by default.
+   */
+  public void setClock(LongSupplier clock)
+  {
+    this.clock = clock;
+  }
+
+  public void setTolerance(double tolerance)
+  {
+    this.toleranceSquared = tolerance * tolerance;
+  }
+
+  /**
+   * Enables simplification of the output lines: vertices are dropped as long as the line stays within the tolerance of
+   * every retained vertex. 0 disables it.
+   */
+  public void setLineTolerance(double lineTolerance)
+  {
+    long stamp = beginWrite();
+    try
+    {
+      if (sealedSize() > 0)
+        thaw();
+      this.lineTolerance = lineTolerance;
+      store.setKeptColumn(lineTolerance > 0);
+      if (lineTolerance > 0)
+      {
+        for (int i = 0; i < size; i++)
+          store.setKept(slot(i), true);
+        if (size > 0)
+          resetCone(size - 1);
+      }
+    }
+    finally
+    {
+      endWrite(stamp);
+    }
+  }
+
+  /**
+   * Enables downsampling of a time window: vertices older than tierAges[i] are kept at most one per tierIntervals[i]
+   * milliseconds. Ages and intervals must both be ascending. Null keeps every vertex.
+   */
+  public void setTiers(long[] tierAges, long[] tierIntervals)
+  {
+    this.tierAges = tierAges;
+    this.tierIntervals = tierIntervals;
+    this.tierTimes = null;
+    if (tierAges != null)
+    {
+      tierTimes = new long[tierAges.length];
+      rewindTiers(Long.MIN_VALUE);
+    }
+  }
+
+  /**
+   * Seals all but the most recent vertices in compressed chunks, with coordinates rounded to the given precision. 0
+   * keeps every vertex uncompressed.
+   */
+  public void setPrecision(double precision)
+  {
+    long stamp = beginWrite();
+    try
+    {
+      if (sealedSize() > 0)
+        thaw();
+      chunks = (precision > 0) ? new TimetreeVertexChunks(precision) : null;
+      if (chunks != null)
+        seal();
+      shrink();
+    }
+    finally
+    {
+      endWrite(stamp);
+    }
+  }
+
+  /**
+   * Moves the history to the given store, for example one off-heap. The previous store is released.
+   */
+  public void setStore(TimetreeVertexStore newStore)
+  {
+    int capacity = newStore.capacity();
+    if (capacity < size || Integer.bitCount(capacity) != 1)
+      throw new IllegalArgumentException("Store capacity " + capacity + " can't hold " + size + " vertices.");
+    newStore.setKeptColumn(lineTolerance > 0);
+    long stamp = beginWrite();
+    try
+    {
+      for (int i = 0; i < size; i++)
+      {
+        int slot = slot(i);
+        newStore.set(i, store.getTime(slot), store.getX(slot), store.getY(slot));
+        if (lineTolerance > 0)
+          newStore.setKept(i, store.isKept(slot));
       }
+      store.release();
+      store = newStore;
+      mask = capacity - 1;
+      head = 0;
+    }
+    finally
+    {
+      endWrite(stamp);
+    }
+  }
 
-      LOGGER.trace("Checking location keys.");
+  public boolean isOffHeap()
+  {
+    return store.isOffHeap();
+  }
 
-      Map.Entry<Long, TimetreeGeoEvent> curEntry = this.lastEntry();
-      while (curEntry != null && curEntry.getValue() != null)
+  /**
+   * Releases the store of a retired history, its heap arrays or off-heap block, which keeps no vertices afterwards. The
+   * caller must hold the monitor.
+   */
+  public void releaseStore()
+  {
+    long stamp = beginWrite();
+    try
+    {
+      store.release();
+      head = 0;
+      size = 0;
+      if (chunks != null)
+        chunks.clear();
+      latestFields = null;
+    }
+    finally
+    {
+      endWrite(stamp);
+    }
+  }
+
+  /**
+   * Tracks the changes of the line for getDeltaByCount() and getDeltaByTime(), with a keyframe every keyframeInterval
+   * lines.
+   */
+  public void setDeltaOutput(int keyframeInterval)
+  {
+    delta = new TimetreeDelta(keyframeInterval);
+  }
+
+  /**
+   * The state of the last delta, or null without delta output.
+   */
+  public TimetreeDelta getDelta()
+  {
+    return delta;
+  }
+
+  /**
+   * Keeps the length and envelope of the history up to date as it changes, see getStats().
+   */
+  public void setStatistics(boolean statistics)
+  {
+    stats = statistics ? new TimetreeStats() : null;
+    if (stats != null)
+      stats.reset(this);
+  }
+
+  /**
+   * The statistics of the history, or null when they are not kept.
+   */
+  public TimetreeStats getStats()
+  {
+    return stats;
+  }
+
+  public void setMetrics(TimetreeMetrics metrics)
+  {
+    this.metrics = metrics;
+  }
+
+  public TimetreeExpiryWheel getExpiryWheel()
+  {
+    return expiryWheel;
+  }
+
+  public void setExpiryWheel(TimetreeExpiryWheel expiryWheel)
+  {
+    this.expiryWheel = expiryWheel;
+  }
+
+  public long getExpiryTime()
+  {
+    return expiryTime;
+  }
+
+  public void setExpiryTime(long expiryTime)
+  {
+    this.expiryTime = expiryTime;
+  }
+
+  /**
+   * The latest event of the track not sent yet when output is coalesced, see TimetreeEmitter.
+   */
+  public GeoEvent getPendingEvent()
+  {
+    return pendingEvent;
+  }
+
+  public void setPendingEvent(GeoEvent pendingEvent)
+  {
+    this.pendingEvent = pendingEvent;
+  }
+
+  public int getPendingUpdates()
+  {
+    return pendingUpdates;
+  }
+
+  public void setPendingUpdates(int pendingUpdates)
+  {
+    this.pendingUpdates = pendingUpdates;
+  }
+
+  public boolean isQueued()
+  {
+    return queued;
+  }
+
+  public void setQueued(boolean queued)
+  {
+    this.queued = queued;
+  }
+
+  /**
+   * Lets snapshotGeometry() read the line without the monitor. Must be set before the history is shared with other
+   * threads.
+   */
+  public void setSnapshots(boolean snapshots)
+  {
+    versions = snapshots ? new StampedLock() : null;
+  }
+
+  /**
+   * The field values of the latest event of the track, kept for snapshots as the template of the track's snapshot
+   * event. The definition of the event is the one of the track key. The array is the event's own and must not be
+   * changed.
+   */
+  public Object[] getLatestFields()
+  {
+    return latestFields;
+  }
+
+  /**
+   * Keeps the field values of the event, not the event itself with its properties. The array is not copied, so this
+   * costs nothing per event; the snapshot publisher copies it when it takes a snapshot.
+   */
+  public void setLatestEvent(GeoEvent latestEvent)
+  {
+    this.latestFields = latestEvent.getAllFields();
+  }
+
+  /**
+   * Builds the line of the last count vertices, or with byTime of the vertices within the given milliseconds, without
+   * the monitor, so a reader taking snapshots of every track never holds up the writers. The vertices are copied
+   * optimistically and copied again when a writer changed the history meanwhile; only after several conflicts, or for
+   * compressed histories whose decoder state is shared with the writers, the reader takes the monitor. Returns null
+   * while the history holds a single vertex.
+   */
+  public MapGeometry snapshotGeometry(long window, boolean byTime)
+  {
+    StampedLock versions = this.versions;
+    if (versions != null && chunks == null)
+    {
+      for (int attempt = 0; attempt < OPTIMISTIC_READS; attempt++)
       {
-        boolean removed = false;
-        String curLocationKey = curEntry.getValue().getLocationKey();
-        LOGGER.trace("\tChecking location keys. CUR_KEY: {0}[{1}]", curEntry.getKey(), curLocationKey);
-        Map.Entry<Long, TimetreeGeoEvent> preEntry = this.lowerEntry(curEntry.getKey());
-        if (preEntry != null && preEntry.getValue() != null)
+        long stamp = versions.tryOptimisticRead();
+        if (stamp == 0)
+        {
+          Thread.yield();
+          continue;
+        }
+        ByteBuffer shape = null;
+        SpatialReference snapshotSpatialReference = spatialReference;
+        try
+        {
+          int from = byTime ? firstIndexAt(clock.getAsLong() - window) : startOfCount(window);
+          if (size() > 1 && from < size())
+            shape = toShape(from);
+        }
+        catch (RuntimeException e)
         {
-          String preLocationKey = preEntry.getValue().getLocationKey();
-          LOGGER.trace("\tChecking location keys. PRE_KEY: {0}[{1}]", preEntry.getKey(), preLocationKey);
-          if (preLocationKey != null && preLocationKey.equals(curLocationKey))
-          {
-            LOGGER.trace("\tKeys match, removing entry key: {0}", preEntry.getKey());
-            removed = true;
-            this.remove(preEntry.getKey());
-          }
+          // a writer moved the columns while they were copied, validate() fails
         }
-        if (!removed)
-          curEntry = this.lowerEntry(curEntry.getKey());
+        if (versions.validate(stamp))
+          return (shape != null) ? importShape(shape, snapshotSpatialReference) : null;
+        if (metrics != null)
+          metrics.snapshotRetried();
       }
     }
-    else
+    synchronized (this)
     {
-      LOGGER.debug("Cant add event to cache, geometry is wrong type: {0}", value);
+      if (size() < 2)
+        return null;
+      return byTime ? getGeometryByTime(window) : getGeometryByCount(window);
     }
+  }
 
-    Long firstKey = this.firstKey();
-    if (maxSize > 0)
+  /**
+   * A retired history was dropped from the registry and must not receive new vertices.
+   */
+  public boolean isRetired()
+  {
+    return retired;
+  }
+
+  public void setRetired(boolean retired)
+  {
+    this.retired = retired;
+  }
+
+  /**
+   * Inserts a vertex keeping the columns ordered by time. A vertex with the same time as an existing one replaces it,
+   * the same as a put on a sorted map would. Returns the index the vertex was written to.
+   */
+  private int insert(long time, double x, double y)
+  {
+    if (sealedSize() > 0 && time <= chunks.getLastTime())
+      thaw();
+    int index = size;
+    if (size > 0 && time <= timeAt(size - 1))
     {
-      if (this.size() > maxSize)
+      index = indexOf(time);
+      if (index >= 0)
       {
-        LOGGER.trace("Removing event from cache, size reached limit: {0}", firstKey);
-        this.remove(firstKey);
+        if (stats != null)
+          stats.removing(this, sealedSize() + index);
+        set(index, time, x, y);
+        changed(index);
+        if (stats != null)
+          stats.added(this, sealedSize() + index);
+        return index;
       }
+      index = -(index + 1);
+      changed(index);
+    }
+    if (size == mask + 1)
+      resize((mask + 1) << 1);
+    for (int i = size; i > index; i--)
+      move(i - 1, i);
+    size++;
+    set(index, time, x, y);
+    if (lineTolerance > 0)
+      store.setKept(slot(index), false);
+    if (stats != null)
+      stats.added(this, sealedSize() + index);
+    return index;
+  }
+
+  /**
+   * Consecutive vertices at the same location collapse to the latest one. The history never holds adjacent duplicates,
+   * so only the neighbours of the vertex just written need to be compared.
+   */
+  private int removeDuplicate(int index)
+  {
+    if (index + 1 < size && isSameLocation(index, index + 1))
+    {
+      if (LOGGER.isTraceEnabled())
+        LOGGER.trace("\tLocations match, removing entry key: {0}", timeAt(index));
+      removeDuplicate(index, index + 1);
+    }
+    else if (index > 0 && isSameLocation(index - 1, index))
+    {
+      if (LOGGER.isTraceEnabled())
+        LOGGER.trace("\tLocations match, removing entry key: {0}", timeAt(index - 1));
+      removeDuplicate(index - 1, index);
+      return index - 1;
     }
     else
     {
-      while (((System.currentTimeMillis() - firstKey) > maxAge))
+      return index;
+    }
+    // a replaced vertex may have separated two matching neighbours
+    if (index > 0 && index < size && isSameLocation(index - 1, index))
+      removeDuplicate(index - 1, index);
+    return -1;
+  }
+
+  /**
+   * Removes a duplicate, the vertex that stays in its place inherits its kept flag.
+   */
+  private void removeDuplicate(int index, int survivor)
+  {
+    if (lineTolerance > 0 && store.isKept(slot(index)))
+      store.setKept(slot(survivor), true);
+    remove(index);
+    if (metrics != null)
+      metrics.duplicateDropped();
+  }
+
+  /**
+   * Decides which vertices the output lines keep as a vertex is written, in constant time for a vertex appended at the
+   * end. A vertex is dropped while every vertex since the anchor lies within the tolerance of the line from the anchor
+   * to the newest vertex; as soon as a new vertex falls outside that cone the previous one is kept and becomes the
+   * anchor. The cone uses half the tolerance so the line stays within the tolerance after the anchor expired and the
+   * oldest remaining vertex starts the line instead.
+   */
+  private void simplify(int index)
+  {
+    int last = size - 1;
+    if (index < last)
+    {
+      resimplify(index);
+    }
+    else if (last == 0 || store.isKept(slot(last)))
+    {
+      // the first vertex, or one that took the place of a kept duplicate, anchors the line
+      store.setKept(slot(last), true);
+      resetCone(last);
+    }
+    else
+    {
+      advance(last);
+    }
+  }
+
+  /**
+   * Decides whether the vertex before the given one is kept, then narrows the cone by the given vertex.
+   */
+  private void advance(int index)
+  {
+    if (store.isKept(slot(index - 1)))
+      resetCone(index - 1);
+
+    double dx = xAt(index) - anchorX;
+    double dy = yAt(index) - anchorY;
+    double distance = Math.sqrt(dx * dx + dy * dy);
+    if (!isInCone(dx, dy, distance))
+    {
+      store.setKept(slot(index - 1), true);
+      resetCone(index - 1);
+      dx = xAt(index) - anchorX;
+      dy = yAt(index) - anchorY;
+      distance = Math.sqrt(dx * dx + dy * dy);
+    }
+
+    double halfTolerance = lineTolerance / 2;
+    if (distance > halfTolerance)
+    {
+      double direction = Math.atan2(dy, dx);
+      double spread = Math.asin(halfTolerance / distance);
+      if (coneOpen)
+      {
+        coneOpen = false;
+        coneDirection = direction;
+        coneLow = -spread;
+        coneHigh = spread;
+      }
+      else
       {
-        LOGGER.trace("Removing event from cache, time limit reached limit: {0}", firstKey);
-        this.remove(firstKey);
-        firstKey = this.firstKey();
+        double relative = relativeDirection(direction);
+        coneLow = Math.max(coneLow, relative - spread);
+        coneHigh = Math.min(coneHigh, relative + spread);
       }
+      coneDistance = Math.max(coneDistance, distance);
     }
+  }
 
-    return result;
+  private boolean isInCone(double dx, double dy, double distance)
+  {
+    if (distance < coneDistance)
+      return false;
+    if (coneOpen)
+      return true;
+    double relative = relativeDirection(Math.atan2(dy, dx));
+    return coneLow <= relative && relative <= coneHigh;
   }
 
-  public MapGeometry getGeometryByCount(long count)
+  private double relativeDirection(double direction)
   {
-    LOGGER.trace("Creating new geometry for count {0}.", count);
-    return getGeometry(System.currentTimeMillis(), count);
+    double relative = direction - coneDirection;
+    if (relative > Math.PI)
+      relative -= 2 * Math.PI;
+    else if (relative < -Math.PI)
+      relative += 2 * Math.PI;
+    return relative;
   }
 
-  public MapGeometry getGeometryByTime(long rangeMiillis)
+  private void resetCone(int anchor)
   {
-    LOGGER.trace("Creating new geometry for time range {0} ms.", rangeMiillis);
-    return getGeometry(rangeMiillis, this.keySet().size() + 1);
+    anchorX = xAt(anchor);
+    anchorY = yAt(anchor);
+    coneOpen = true;
+    coneDistance = 0;
   }
 
-  private MapGeometry getGeometry(long rangeMiillis, long count)
+  /**
+   * A vertex written out of order lands inside a run that was already simplified, so the run between the kept vertices
+   * around it is simplified again. The cone of the newest run is left as it was unless the run is the newest one.
+   */
+  private void resimplify(int index)
   {
-    MapGeometry result = null;
-    if (this.keySet().size() > 0)
+    int last = size - 1;
+    int from = Math.max(0, index - 1);
+    while (from > 0 && !store.isKept(slot(from)))
+      from--;
+    store.setKept(slot(from), true);
+    int to = index + 1;
+    while (to < last && !store.isKept(slot(to)))
+      to++;
+
+    double savedAnchorX = anchorX;
+    double savedAnchorY = anchorY;
+    boolean savedConeOpen = coneOpen;
+    double savedConeDirection = coneDirection;
+    double savedConeLow = coneLow;
+    double savedConeHigh = coneHigh;
+    double savedConeDistance = coneDistance;
+    resetCone(from);
+    for (int i = from + 1; i <= to; i++)
+    {
+      if (i < to || to == last)
+        store.setKept(slot(i), false);
+      advance(i);
+    }
+    if (to < last)
+    {
+      anchorX = savedAnchorX;
+      anchorY = savedAnchorY;
+      coneOpen = savedConeOpen;
+      coneDirection = savedConeDirection;
+      coneLow = savedConeLow;
+      coneHigh = savedConeHigh;
+      coneDistance = savedConeDistance;
+    }
+  }
+
+  private boolean isSameLocation(int first, int second)
+  {
+    double dx = xAt(second) - xAt(first);
+    double dy = yAt(second) - yAt(first);
+    return dx * dx + dy * dy <= toleranceSquared;
+  }
+
+  /**
+   * Removes the vertex at the index, shifting whichever side of the ring is shorter.
+   */
+  private void remove(int index)
+  {
+    if (stats != null)
+      stats.removing(this, sealedSize() + index);
+    if (delta != null)
+    {
+      if (index == 0 && sealedSize() == 0)
+        delta.removedFirst();
+      else
+        delta.changed(sealedSize() + index);
+    }
+    if (index < (size >> 1))
+    {
+      for (int i = index; i > 0; i--)
+        move(i - 1, i);
+      head = slot(1);
+    }
+    else
     {
+      for (int i = index + 1; i < size; i++)
+        move(i, i - 1);
+    }
+    size--;
+  }
 
-      try
+  private void move(int from, int to)
+  {
+    store.move(slot(from), slot(to));
+  }
+
+  /**
+   * Thins the vertices that aged into each tier since the previous pass, keeping the first vertex of every tier
+   * interval. A removed vertex that was kept by the line simplification passes the flag on to its predecessor.
+   */
+  private void downsample(long now)
+  {
+    for (int tier = 0; tier < tierAges.length; tier++)
+    {
+      int end = insertionPoint(now - tierAges[tier]);
+      int index = insertionPoint(tierTimes[tier] + 1);
+      long interval = tierIntervals[tier];
+      // the oldest vertex of the ring follows the newest compressed one
+      if (index == 0 && sealedSize() > 0)
       {
-        final Polyline polyline = new Polyline();
-
-        long startTime = System.currentTimeMillis() - rangeMiillis;
-
-        this.forEach((time, treeGeoevent) ->
-          {
-            if (treeGeoevent.getTime() >= startTime && polyline.getSegmentCount() <= count)
-            {
-              Point geoPoint = ((Point) treeGeoevent.getGeoEvent().getGeometry().getGeometry());
-              if (polyline.isEmpty())
-              {
-                LOGGER.trace("Creating new geometry starting at point: ", geoPoint);
-                polyline.startPath(geoPoint.getX(), geoPoint.getY());
-              }
-              else
-              {
-                LOGGER.trace("Adding point to geometry: ", geoPoint);
-                polyline.lineTo(geoPoint.getX(), geoPoint.getY());
-              }
-            }
-          });
-        if (!polyline.isEmpty())
+        while (end > 0 && timeAt(0) - chunks.getLastTime() < interval)
         {
-          result = new MapGeometry(polyline, this.spatialReference);
-          LOGGER.trace("Returning new map geometry: ", result);
+          if (lineTolerance > 0 && size > 1 && store.isKept(slot(0)))
+            store.setKept(slot(1), true);
+          remove(0);
+          end--;
+          if (metrics != null)
+            metrics.vertexDownsampled();
         }
       }
-      catch (Exception e)
+      index = Math.max(1, index);
+      while (index < end)
       {
-        if (LOGGER.isDebugEnabled())
-          LOGGER.debug("Failed to create geometry", e);
+        if (timeAt(index) - timeAt(index - 1) < interval)
+        {
+          if (lineTolerance > 0 && store.isKept(slot(index)))
+            store.setKept(slot(index - 1), true);
+          remove(index);
+          end--;
+          if (metrics != null)
+            metrics.vertexDownsampled();
+        }
         else
-          LOGGER.info("Failed to create geometry", e.getMessage());
+        {
+          index++;
+        }
       }
+      if (end > 0)
+        tierTimes[tier] = Math.max(tierTimes[tier], timeAt(end - 1));
     }
-    return result;
   }
 
-  public short getMaxSize()
+  /**
+   * Makes every tier thin again from the given time on, after a vertex was written behind the newest thinned one.
+   */
+  private void rewindTiers(long time)
   {
-    return maxSize;
+    for (int tier = 0; tier < tierTimes.length; tier++)
+      tierTimes[tier] = Math.min(tierTimes[tier], time);
   }
 
-  public void setMaxSize(short maxSize)
+  private void trimToMaxSize()
   {
-    this.maxSize = maxSize;
+    while (size() > maxSize)
+    {
+      if (LOGGER.isTraceEnabled())
+        LOGGER.trace("Removing event from cache, size reached limit: {0}", getFirstTime());
+      removeFirst();
+      if (metrics != null)
+        metrics.vertexTrimmedBySize();
+    }
+  }
+
+  private void removeFirst()
+  {
+    if (stats != null)
+      stats.removing(this, 0);
+    if (delta != null)
+      delta.removedFirst();
+    if (sealedSize() > 0)
+    {
+      chunks.removeFirst();
+    }
+    else
+    {
+      head = slot(1);
+      size--;
+    }
+  }
+
+  /**
+   * Index of the first vertex of the whole history at or after the given time.
+   */
+  private int firstIndexAt(long time)
+  {
+    int sealed = sealedSize();
+    if (sealed > 0 && time <= chunks.getLastTime())
+      return chunks.indexOf(time);
+    return sealed + insertionPoint(time);
+  }
+
+  /**
+   * Binary search over the time column, returns the index of the time or (-(insertion point) - 1) when not found.
+   */
+  private int indexOf(long time)
+  {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high)
+    {
+      int mid = (low + high) >>> 1;
+      long midTime = timeAt(mid);
+      if (midTime < time)
+        low = mid + 1;
+      else if (midTime > time)
+        high = mid - 1;
+      else
+        return mid;
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Index of the first vertex at or after the given time.
+   */
+  private int insertionPoint(long time)
+  {
+    int index = indexOf(time);
+    return (index < 0) ? -(index + 1) : index;
+  }
+
+  private long timeAt(int index)
+  {
+    return store.getTime(slot(index));
+  }
+
+  private double xAt(int index)
+  {
+    return store.getX(slot(index));
+  }
+
+  private double yAt(int index)
+  {
+    return store.getY(slot(index));
+  }
+
+  private void set(int index, long time, double x, double y)
+  {
+    store.set(slot(index), time, x, y);
+  }
+
+  private int slot(int index)
+  {
+    return (head + index) & mask;
+  }
+
+  private void shrink()
+  {
+    int capacity = mask + 1;
+    while (capacity > MIN_CAPACITY && size <= (capacity >> 2))
+      capacity >>= 1;
+    if (capacity != mask + 1)
+      resize(capacity);
+  }
+
+  private void resize(int capacity)
+  {
+    if (capacity > store.maxCapacity())
+    {
+      // the history outgrew the largest block of its store, e.g. an off-heap slab, it continues on the heap
+      TimetreeVertexStore heapStore = new TimetreeHeapStore(capacity);
+      heapStore.setKeptColumn(lineTolerance > 0);
+      for (int i = 0; i < size; i++)
+      {
+        int slot = slot(i);
+        heapStore.set(i, store.getTime(slot), store.getX(slot), store.getY(slot));
+        if (lineTolerance > 0)
+          heapStore.setKept(i, store.isKept(slot));
+      }
+      store.release();
+      store = heapStore;
+    }
+    else
+    {
+      store.resize(capacity, head, size);
+    }
+    mask = capacity - 1;
+    head = 0;
+  }
+
+  /**
+   * Reports a change from the vertex at the index of the ring on to the delta output.
+   */
+  private void changed(int index)
+  {
+    if (delta != null)
+      delta.changed(sealedSize() + index);
+  }
+
+  private int sealedSize()
+  {
+    return (chunks != null) ? chunks.size() : 0;
+  }
+
+  /**
+   * Compresses the oldest vertices of the ring a chunk at a time, as long as more than a chunk of recent vertices stays
+   * in the ring for duplicate removal, simplification and most events out of order. With tiers only vertices every
+   * tier already thinned are compressed.
+   */
+  private void seal()
+  {
+    int chunkSize = TimetreeVertexChunks.CHUNK_VERTICES;
+    long sealTime = Long.MAX_VALUE;
+    if (tierTimes != null)
+    {
+      for (long tierTime : tierTimes)
+        sealTime = Math.min(sealTime, tierTime);
+    }
+    while (size >= (chunkSize << 1) && timeAt(chunkSize - 1) <= sealTime)
+    {
+      if (stats != null)
+        stats.sealing(this, sealedSize(), chunkSize, chunks.getPrecision());
+      chunks.append(store, head, mask, chunkSize, lineTolerance > 0);
+      head = slot(chunkSize);
+      size -= chunkSize;
+    }
+  }
+
+  /**
+   * Decompresses all vertices back into the ring, for a vertex that arrived behind the compressed ones. They are sealed
+   * again by the next trim.
+   */
+  private void thaw()
+  {
+    int sealed = chunks.size();
+    int capacity = MIN_CAPACITY;
+    while (capacity < sealed + size)
+      capacity <<= 1;
+    resize(capacity);
+    for (int i = size - 1; i >= 0; i--)
+      store.move(i, i + sealed);
+    chunks.copyTo(store, lineTolerance > 0);
+    chunks.clear();
+    size += sealed;
   }
 }
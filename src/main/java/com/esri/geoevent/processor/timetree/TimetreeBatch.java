@@ -0,0 +1,240 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.esri.core.geometry.MapGeometry;
+import com.esri.ges.core.geoevent.GeoEvent;
+
+/**
+ * A burst of events grouped by track, so each track is looked up and locked once for all of its events instead of once
+ * per event. The tracks are processed in parallel on the common fork-join pool, the events of a track in time order by
+ * a single thread. The lines are returned in the order the events were added.
+ */
+public class TimetreeBatch
+{
+  private static final int              TRACKS_PER_TASK     = 4;
+  private static final int              INSERTION_SORT_SIZE = 256;
+
+  private final TimetreeProcessor       processor;
+  private final GeoEvent[]              lines;
+  private final Map<TimetreeKey, Track> tracks              = new HashMap<>();
+  private final TimetreeKey             probe               = new TimetreeKey();
+  private int                           size                = 0;
+
+  public TimetreeBatch(TimetreeProcessor processor, int capacity)
+  {
+    this.processor = processor;
+    lines = new GeoEvent[capacity];
+  }
+
+  /**
+   * Adds an event with the time of the processor's window time field.
+   */
+  public void add(GeoEvent geoEvent, long time)
+  {
+    String definitionGuid = geoEvent.getGeoEventDefinition().getGuid();
+    String trackId = geoEvent.getTrackId();
+    Track track = tracks.get(probe.set(definitionGuid, trackId, TimetreeKey.hash(definitionGuid, trackId)));
+    if (track == null)
+    {
+      track = new Track(definitionGuid, trackId);
+      tracks.put(new TimetreeKey(definitionGuid, trackId), track);
+    }
+    track.add(geoEvent, time, size++);
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Processes the tracks and returns the events that got a line, in the order they were added.
+   */
+  public List<GeoEvent> process()
+  {
+    Collection<Track> values = tracks.values();
+    Track[] batchTracks = values.toArray(new Track[values.size()]);
+    Task task = new Task(batchTracks, 0, batchTracks.length);
+    if (batchTracks.length <= TRACKS_PER_TASK)
+      task.compute();
+    else
+      ForkJoinPool.commonPool().invoke(task);
+    List<GeoEvent> result = new ArrayList<>();
+    for (int i = 0; i < size; i++)
+      if (lines[i] != null)
+        result.add(lines[i]);
+    return result;
+  }
+
+  /**
+   * The events of one track in a batch.
+   */
+  public final class Track
+  {
+    private final String  definitionGuid;
+    private final String  trackId;
+    private GeoEvent[]    geoEvents = new GeoEvent[2];
+    private long[]        times     = new long[2];
+    private MapGeometry[] locations = new MapGeometry[2];
+    private int[]         indexes   = new int[2];
+    private int           count     = 0;
+
+    Track(String definitionGuid, String trackId)
+    {
+      this.definitionGuid = definitionGuid;
+      this.trackId = trackId;
+    }
+
+    void add(GeoEvent geoEvent, long time, int index)
+    {
+      if (count == times.length)
+      {
+        geoEvents = Arrays.copyOf(geoEvents, count << 1);
+        times = Arrays.copyOf(times, count << 1);
+        locations = Arrays.copyOf(locations, count << 1);
+        indexes = Arrays.copyOf(indexes, count << 1);
+      }
+      geoEvents[count] = geoEvent;
+      times[count] = time;
+      locations[count] = geoEvent.getGeometry();
+      indexes[count] = index;
+      count++;
+    }
+
+    /**
+     * Orders the events by time, events with the same time stay in the order they were added. Bursts are mostly in
+     * order, a few late events are moved in place.
+     */
+    void sort()
+    {
+      int i = 1;
+      while (i < count && times[i - 1] <= times[i])
+        i++;
+      if (i == count)
+        return;
+      if (count <= INSERTION_SORT_SIZE)
+      {
+        for (; i < count; i++)
+        {
+          GeoEvent geoEvent = geoEvents[i];
+          long time = times[i];
+          MapGeometry location = locations[i];
+          int index = indexes[i];
+          int j = i;
+          for (; j > 0 && times[j - 1] > time; j--)
+          {
+            geoEvents[j] = geoEvents[j - 1];
+            times[j] = times[j - 1];
+            locations[j] = locations[j - 1];
+            indexes[j] = indexes[j - 1];
+          }
+          geoEvents[j] = geoEvent;
+          times[j] = time;
+          locations[j] = location;
+          indexes[j] = index;
+        }
+        return;
+      }
+      Integer[] order = new Integer[count];
+      for (i = 0; i < count; i++)
+        order[i] = i;
+      Arrays.sort(order, Comparator.comparingLong(index -> times[index]));
+      GeoEvent[] sortedEvents = new GeoEvent[count];
+      long[] sortedTimes = new long[count];
+      MapGeometry[] sortedLocations = new MapGeometry[count];
+      int[] sortedIndexes = new int[count];
+      for (i = 0; i < count; i++)
+      {
+        sortedEvents[i] = geoEvents[order[i]];
+        sortedTimes[i] = times[order[i]];
+        sortedLocations[i] = locations[order[i]];
+        sortedIndexes[i] = indexes[order[i]];
+      }
+      geoEvents = sortedEvents;
+      times = sortedTimes;
+      locations = sortedLocations;
+      indexes = sortedIndexes;
+    }
+
+    public String getDefinitionGuid()
+    {
+      return definitionGuid;
+    }
+
+    public String getTrackId()
+    {
+      return trackId;
+    }
+
+    public int size()
+    {
+      return count;
+    }
+
+    public GeoEvent getEvent(int i)
+    {
+      return geoEvents[i];
+    }
+
+    public long[] getTimes()
+    {
+      return times;
+    }
+
+    public MapGeometry[] getLocations()
+    {
+      return locations;
+    }
+
+    /**
+     * The i-th event of the track, in time order, got a line.
+     */
+    public void setLine(int i, GeoEvent line)
+    {
+      lines[indexes[i]] = line;
+    }
+  }
+
+  private final class Task extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final Track[]     batchTracks;
+    private final int         from;
+    private final int         to;
+
+    Task(Track[] batchTracks, int from, int to)
+    {
+      this.batchTracks = batchTracks;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (to - from <= TRACKS_PER_TASK)
+      {
+        for (int i = from; i < to; i++)
+        {
+          batchTracks[i].sort();
+          processor.processTrack(batchTracks[i]);
+        }
+      }
+      else
+      {
+        int middle = (from + to) >>> 1;
+        invokeAll(new Task(batchTracks, from, middle), new Task(batchTracks, middle, to));
+      }
+    }
+  }
+}
@@ -0,0 +1,413 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.esri.core.geometry.SpatialReference;
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Periodically writes the track histories of a processor to a memory-mapped snapshot file and restores them when the
+ * processor starts again.
+ * <p>
+ * Snapshots alternate between two files so the previous snapshot stays intact while the next one is written. The
+ * header, which carries the generation, is only written once the body is on disk; the newest file with a valid header
+ * wins on restore. Each track is copied under its own monitor, so process() only waits for the copy of the track it is
+ * updating, never for the whole snapshot.
+ * <p>
+ * On restore only an index of track keys to snapshot offsets is built up front. A track is loaded from the mapped file
+ * the first time it is looked up, and a background pass loads the remaining tracks; no checkpoint is written until that
+ * pass is done.
+ */
+public class TimetreeCheckpoint implements Runnable
+{
+  private static final BundleLogger                LOGGER       = BundleLoggerFactory.getLogger(TimetreeProcessor.class);
+  private static final int                         MAGIC        = 0x54545245;
+  private static final int                         VERSION      = 2;
+  private static final int                         HEADER_BYTES = 32;
+  private static final int                         MAP_BYTES    = 8 * 1024 * 1024;
+  private static final int                         VERTEX_BYTES = 24;
+  private static final int                         MAX_STRING   = 0xFFFE;
+  private static final int                         NULL_STRING  = 0xFFFF;
+
+  private final TimetreeRegistry                   registry;
+  private final Consumer<TimeTreeMap>              restored;
+  private final File[]                             files;
+  private final long                               periodMillis;
+  private ScheduledExecutorService                 executor;
+  private long                                     generation   = 0;
+  private volatile boolean                         restoring    = false;
+  private volatile boolean                         stopping     = false;
+  // set by the final checkpoint, under the monitor, so no periodic one can follow it
+  private boolean                                  stopped      = false;
+
+  private volatile ConcurrentHashMap<TimetreeKey, Long> pending;
+  private volatile ByteBuffer                      snapshot;
+
+  /**
+   * @param restored called, under the track's monitor, for every track loaded by the background restore pass.
+   */
+  public TimetreeCheckpoint(TimetreeRegistry registry, File folder, String name, long periodMillis, Consumer<TimeTreeMap> restored)
+  {
+    this.registry = registry;
+    this.restored = restored;
+    this.periodMillis = periodMillis;
+    String fileName = name.replaceAll("[^A-Za-z0-9._-]", "_");
+    this.files = new File[] { new File(folder, fileName + ".0.timetree"), new File(folder, fileName + ".1.timetree") };
+  }
+
+  public synchronized void start()
+  {
+    if (executor == null)
+    {
+      restoring = true;
+      stopping = false;
+      stopped = false;
+      executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+          Thread thread = new Thread(runnable, "timetree-checkpoint");
+          thread.setDaemon(true);
+          return thread;
+        });
+      executor.execute(this::restore);
+      executor.scheduleWithFixedDelay(this, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Stops the periodic checkpoints and writes a final one. The monitor is not held while waiting for a periodic
+   * checkpoint still being written, which takes it.
+   */
+  public void stop()
+  {
+    ScheduledExecutorService oldExecutor;
+    synchronized (this)
+    {
+      oldExecutor = executor;
+      executor = null;
+      if (oldExecutor == null)
+        return;
+      stopping = true;
+    }
+    oldExecutor.shutdownNow();
+    try
+    {
+      oldExecutor.awaitTermination(periodMillis, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    write(true);
+  }
+
+  /**
+   * Drops the tracks not restored yet, for example when the cache is cleared.
+   */
+  public void discard()
+  {
+    ConcurrentHashMap<TimetreeKey, Long> tracks = pending;
+    if (tracks != null)
+      tracks.clear();
+  }
+
+  /**
+   * Loads the snapshot of a track into it if the track has not been restored yet. The caller must hold the track's
+   * monitor or own the track exclusively.
+   */
+  public boolean load(TimeTreeMap timetreeMap)
+  {
+    ConcurrentHashMap<TimetreeKey, Long> tracks = pending;
+    ByteBuffer buffer = snapshot;
+    if (tracks == null || buffer == null)
+      return false;
+    Long offset = tracks.remove(timetreeMap.getTrackKey());
+    if (offset == null)
+      return false;
+    buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    buffer.position(offset.intValue());
+    skipString(buffer);
+    skipString(buffer);
+    SpatialReference spatialReference = readSpatialReference(buffer);
+    if (timetreeMap.getSpatialReference() == null)
+      timetreeMap.setSpatialReference(spatialReference);
+    timetreeMap.readVertices(buffer, buffer.getInt());
+    if (LOGGER.isTraceEnabled())
+      LOGGER.trace("Restored track from checkpoint: {0}", timetreeMap.getTrackKey());
+    return true;
+  }
+
+  @Override
+  public void run()
+  {
+    if (!stopping)
+      write(false);
+  }
+
+  private synchronized void write(boolean last)
+  {
+    // writing before all tracks are restored would drop the ones still in the previous snapshot
+    if (restoring || stopped)
+      return;
+    stopped = last;
+    File file = files[(int) ((generation + 1) & 1)];
+    long start = System.currentTimeMillis();
+    try (RandomAccessFile access = new RandomAccessFile(file, "rw"); FileChannel channel = access.getChannel())
+    {
+      MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+      header.order(ByteOrder.LITTLE_ENDIAN).putInt(0, 0);
+      header.force();
+
+      Writer writer = new Writer(channel);
+      registry.forEach(writer);
+      writer.flush();
+
+      generation++;
+      header.putInt(4, VERSION);
+      header.putLong(8, generation);
+      header.putLong(16, writer.length);
+      header.putInt(24, writer.tracks);
+      header.putInt(0, MAGIC);
+      header.force();
+      LOGGER.debug("Checkpointed {0} tracks ({1} bytes) to {2} in {3} ms.", writer.tracks, writer.length, file, System.currentTimeMillis() - start);
+    }
+    catch (Throwable t)
+    {
+      LOGGER.warn("Failed to checkpoint track histories to " + file + ".", t);
+    }
+  }
+
+  private void restore()
+  {
+    long start = System.currentTimeMillis();
+    File file = null;
+    long length = 0;
+    int tracks = 0;
+    for (File candidate : files)
+    {
+      if (!candidate.isFile())
+        continue;
+      try (RandomAccessFile access = new RandomAccessFile(candidate, "r"); FileChannel channel = access.getChannel())
+      {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(header, 0);
+        if (header.getInt(0) == MAGIC && header.getInt(4) == VERSION && header.getLong(8) > generation && HEADER_BYTES + header.getLong(16) <= channel.size())
+        {
+          file = candidate;
+          generation = header.getLong(8);
+          length = header.getLong(16);
+          tracks = header.getInt(24);
+        }
+      }
+      catch (IOException e)
+      {
+        LOGGER.warn("Failed to read checkpoint " + candidate + ".", e);
+      }
+    }
+    if (file == null || length > Integer.MAX_VALUE)
+    {
+      if (file != null)
+        LOGGER.warn("Checkpoint {0} is too large to restore.", file);
+      restoring = false;
+      return;
+    }
+
+    ArrayList<TimetreeKey> trackKeys = new ArrayList<>(tracks);
+    try (RandomAccessFile access = new RandomAccessFile(file, "r"); FileChannel channel = access.getChannel())
+    {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, length).order(ByteOrder.LITTLE_ENDIAN);
+      ConcurrentHashMap<TimetreeKey, Long> offsets = new ConcurrentHashMap<>(tracks * 4 / 3 + 1);
+      for (int i = 0; i < tracks; i++)
+      {
+        int offset = buffer.position();
+        TimetreeKey trackKey = new TimetreeKey(readString(buffer), readString(buffer));
+        readSpatialReference(buffer);
+        int count = buffer.getInt();
+        buffer.position(buffer.position() + count * VERTEX_BYTES);
+        offsets.put(trackKey, (long) offset);
+        trackKeys.add(trackKey);
+      }
+      snapshot = buffer;
+      pending = offsets;
+      LOGGER.debug("Indexed {0} tracks of checkpoint {1} in {2} ms.", tracks, file, System.currentTimeMillis() - start);
+
+      for (TimetreeKey trackKey : trackKeys)
+      {
+        if (Thread.currentThread().isInterrupted())
+          return;
+        if (!offsets.containsKey(trackKey))
+          continue;
+        TimeTreeMap timetreeMap = registry.getOrCreate(trackKey);
+        synchronized (timetreeMap)
+        {
+          if (!timetreeMap.isRetired())
+          {
+            load(timetreeMap);
+            restored.accept(timetreeMap);
+          }
+        }
+        if (registry.isOverMemoryLimit())
+          registry.trimToMemoryLimit();
+        if (registry.hasReleased())
+          registry.reclaim();
+      }
+      LOGGER.info("Restored {0} tracks from checkpoint {1} in {2} ms.", tracks, file, System.currentTimeMillis() - start);
+      restoring = false;
+    }
+    catch (Exception e)
+    {
+      LOGGER.warn("Failed to restore track histories from " + file + ".", e);
+      restoring = false;
+    }
+    finally
+    {
+      pending = null;
+      snapshot = null;
+    }
+  }
+
+  private static void skipString(ByteBuffer buffer)
+  {
+    int length = buffer.getShort() & NULL_STRING;
+    if (length == NULL_STRING)
+      return;
+    buffer.position(buffer.position() + (length << 1));
+  }
+
+  private static String readString(ByteBuffer buffer)
+  {
+    int length = buffer.getShort() & NULL_STRING;
+    if (length == NULL_STRING)
+      return null;
+    char[] chars = new char[length];
+    buffer.asCharBuffer().get(chars);
+    buffer.position(buffer.position() + (chars.length << 1));
+    return new String(chars);
+  }
+
+  private static SpatialReference readSpatialReference(ByteBuffer buffer)
+  {
+    int wkid = buffer.getInt();
+    if (wkid > 0)
+      return SpatialReference.create(wkid);
+    if (wkid == 0)
+      return SpatialReference.create(readString(buffer));
+    return null;
+  }
+
+  /**
+   * Appends tracks to the snapshot body, mapping the file a window at a time as it grows. Per track it writes the
+   * definition GUID and track id, the spatial reference (a WKID, the WKT when there is no WKID, or -1 when unknown), the
+   * vertex count and the vertices.
+   */
+  private static class Writer implements Consumer<TimeTreeMap>
+  {
+    private final FileChannel                       channel;
+    private final HashMap<SpatialReference, String> wkts           = new HashMap<>();
+    private MappedByteBuffer                        window;
+    private long                                    windowPosition = HEADER_BYTES;
+    private long                                    length         = 0;
+    private int                                     tracks         = 0;
+
+    Writer(FileChannel channel)
+    {
+      this.channel = channel;
+    }
+
+    @Override
+    public void accept(TimeTreeMap timetreeMap)
+    {
+      try
+      {
+        synchronized (timetreeMap)
+        {
+          TimetreeKey trackKey = timetreeMap.getTrackKey();
+          String definitionGuid = trackKey.getDefinitionGuid();
+          String trackId = trackKey.getTrackId();
+          if (timetreeMap.isRetired() || timetreeMap.isEmpty() || isTooLong(definitionGuid) || isTooLong(trackId))
+            return;
+          SpatialReference spatialReference = timetreeMap.getSpatialReference();
+          int wkid = (spatialReference == null) ? -1 : spatialReference.getID();
+          String wkt = (wkid == 0) ? wkts.computeIfAbsent(spatialReference, SpatialReference::getText) : null;
+          if (wkt != null && wkt.length() > MAX_STRING)
+          {
+            wkid = -1;
+            wkt = null;
+          }
+          int bytes = stringBytes(definitionGuid) + stringBytes(trackId) + 4 + ((wkt != null) ? stringBytes(wkt) : 0) + 4 + timetreeMap.size() * VERTEX_BYTES;
+          ensureRemaining(bytes);
+          writeString(definitionGuid);
+          writeString(trackId);
+          window.putInt(wkid);
+          if (wkt != null)
+            writeString(wkt);
+          window.putInt(timetreeMap.size());
+          timetreeMap.writeVertices(window);
+          tracks++;
+        }
+      }
+      catch (IOException e)
+      {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    void flush() throws IOException
+    {
+      if (window != null)
+      {
+        length = windowPosition + window.position() - HEADER_BYTES;
+        window.force();
+      }
+    }
+
+    private void ensureRemaining(int bytes) throws IOException
+    {
+      if (window == null || window.remaining() < bytes)
+      {
+        if (window != null)
+        {
+          window.force();
+          windowPosition += window.position();
+        }
+        window = channel.map(FileChannel.MapMode.READ_WRITE, windowPosition, Math.max(MAP_BYTES, bytes));
+        window.order(ByteOrder.LITTLE_ENDIAN);
+      }
+    }
+
+    private boolean isTooLong(String value)
+    {
+      return value != null && value.length() > MAX_STRING;
+    }
+
+    private int stringBytes(String value)
+    {
+      return 2 + ((value != null) ? value.length() << 1 : 0);
+    }
+
+    private void writeString(String value)
+    {
+      if (value == null)
+      {
+        window.putShort((short) NULL_STRING);
+        return;
+      }
+      window.putShort((short) value.length());
+      for (int i = 0; i < value.length(); i++)
+        window.putChar(value.charAt(i));
+    }
+  }
+}
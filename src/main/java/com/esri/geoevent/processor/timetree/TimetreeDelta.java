@@ -0,0 +1,98 @@
+package com.esri.geoevent.processor.timetree;
+
+/**
+ * Tells what changed in the line of a track since it was last sent, so only the change needs to be sent. Vertices are
+ * identified by their position in the history counted from the first vertex the track ever had; the history reports
+ * vertices removed from its head and the first position it changed anywhere else. A delta removes a number of
+ * vertices from the head and from the tail of the previous line and appends the vertices after them. Every
+ * keyframeInterval lines, and whenever the change can't be expressed that way, the full line is sent as a keyframe.
+ * <p>
+ * The caller must hold the track's monitor.
+ */
+public class TimetreeDelta
+{
+  private final int keyframeInterval;
+  // vertices removed from the head of the history, the position of its first vertex
+  private long      base        = 0;
+  // the first position changed since the last line, other than by removing vertices from the head
+  private long      changedFrom = Long.MAX_VALUE;
+  private long      sentStart   = 0;
+  private long      sentEnd     = 0;
+  private long      sequence    = 0;
+  private boolean   keyframe    = true;
+  private int       removedHead = 0;
+  private int       removedTail = 0;
+
+  public TimetreeDelta(int keyframeInterval)
+  {
+    this.keyframeInterval = Math.max(1, keyframeInterval);
+  }
+
+  public void removedFirst()
+  {
+    base++;
+  }
+
+  /**
+   * The vertex at the index of the history, and every vertex after it, may have changed.
+   */
+  public void changed(int index)
+  {
+    changedFrom = Math.min(changedFrom, base + index);
+  }
+
+  /**
+   * Starts the next line, the history's vertices from index from up to size. Returns the index of the first vertex to
+   * send: from for a keyframe, the first vertex the previous line did not have otherwise.
+   */
+  public int next(int from, int size, boolean forceKeyframe)
+  {
+    long start = base + from;
+    long end = base + size;
+    long stable = Math.min(sentEnd, changedFrom);
+    keyframe = forceKeyframe || sequence % keyframeInterval == 0 || start < sentStart || stable < start;
+    sequence++;
+    int first = from;
+    if (keyframe)
+    {
+      removedHead = 0;
+      removedTail = 0;
+    }
+    else
+    {
+      removedHead = (int) (start - sentStart);
+      removedTail = (int) (sentEnd - stable);
+      first = (int) (stable - base);
+    }
+    sentStart = start;
+    sentEnd = end;
+    changedFrom = Long.MAX_VALUE;
+    return first;
+  }
+
+  /**
+   * Number of the last line, starting at 1.
+   */
+  public long getSequence()
+  {
+    return sequence;
+  }
+
+  /**
+   * Whether the last line is a full line rather than a change.
+   */
+  public boolean isKeyframe()
+  {
+    return keyframe;
+  }
+
+  public int getRemovedHead()
+  {
+    return removedHead;
+  }
+
+  public int getRemovedTail()
+  {
+    return removedTail;
+  }
+}
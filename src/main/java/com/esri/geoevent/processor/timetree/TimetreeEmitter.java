@@ -0,0 +1,135 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.esri.core.geometry.MapGeometry;
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Coalesces the output of a processor per track. The latest event of each track waits on its TimeTreeMap until the next
+ * flush, when it is sent with the line as it is at that time; updates arriving in between only replace it. A track that
+ * collected the configured number of updates is sent right away instead. Only tracks with a pending event are visited
+ * by a flush, they are handed over through a lock-free queue.
+ */
+public class TimetreeEmitter implements Runnable
+{
+  private static final BundleLogger                LOGGER  = BundleLoggerFactory.getLogger(TimetreeProcessor.class);
+
+  private final TimetreeProcessor                  processor;
+  private final TimetreeMetrics                    metrics;
+  private final long                               intervalMillis;
+  private final int                                maxUpdates;
+  private final ConcurrentLinkedQueue<TimeTreeMap> pending = new ConcurrentLinkedQueue<>();
+  private ScheduledExecutorService                 executor;
+
+  public TimetreeEmitter(TimetreeProcessor processor, TimetreeMetrics metrics, long intervalMillis, int maxUpdates)
+  {
+    this.processor = processor;
+    this.metrics = metrics;
+    this.intervalMillis = intervalMillis;
+    this.maxUpdates = maxUpdates;
+  }
+
+  public synchronized void start()
+  {
+    if (executor == null)
+    {
+      executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+          Thread thread = new Thread(runnable, "timetree-emitter");
+          thread.setDaemon(true);
+          return thread;
+        });
+      executor.scheduleWithFixedDelay(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Stops the periodic flushes and sends what is still pending.
+   */
+  public synchronized void stop()
+  {
+    if (executor != null)
+    {
+      executor.shutdownNow();
+      executor = null;
+      run();
+    }
+  }
+
+  /**
+   * Makes the event the pending update of its track. Returns true when the track collected enough updates to be sent
+   * right away, see take(). The caller must hold the track's monitor.
+   */
+  public boolean update(TimeTreeMap timetreeMap, GeoEvent geoEvent)
+  {
+    if (timetreeMap.getPendingEvent() != null)
+      metrics.updateCoalesced();
+    timetreeMap.setPendingEvent(geoEvent);
+    timetreeMap.setPendingUpdates(timetreeMap.getPendingUpdates() + 1);
+    if (maxUpdates > 0 && timetreeMap.getPendingUpdates() >= maxUpdates)
+      return true;
+    if (!timetreeMap.isQueued())
+    {
+      timetreeMap.setQueued(true);
+      pending.offer(timetreeMap);
+    }
+    return false;
+  }
+
+  /**
+   * Takes the pending event of a track with the track's current line as its geometry, or null when there is nothing to
+   * send. The caller must hold the track's monitor.
+   */
+  public GeoEvent take(TimeTreeMap timetreeMap)
+  {
+    GeoEvent geoEvent = timetreeMap.getPendingEvent();
+    timetreeMap.setPendingEvent(null);
+    timetreeMap.setPendingUpdates(0);
+    if (geoEvent == null || timetreeMap.isRetired())
+      return null;
+    MapGeometry geometry = processor.createGeometry(timetreeMap);
+    if (geometry == null)
+      return null;
+    processor.setWindowGeometries(timetreeMap, geoEvent);
+    processor.setDeltaFields(timetreeMap, geoEvent);
+    processor.setStatisticsFields(timetreeMap, geoEvent);
+    geoEvent.setGeometry(geometry);
+    return geoEvent;
+  }
+
+  @Override
+  public void run()
+  {
+    try
+    {
+      // tracks queued while flushing wait for the next flush
+      for (int count = pending.size(); count > 0; count--)
+      {
+        TimeTreeMap timetreeMap = pending.poll();
+        if (timetreeMap == null)
+          break;
+        GeoEvent geoEvent;
+        synchronized (timetreeMap)
+        {
+          timetreeMap.setQueued(false);
+          geoEvent = take(timetreeMap);
+        }
+        if (geoEvent != null)
+        {
+          processor.send(geoEvent);
+          metrics.lineSent();
+        }
+      }
+    }
+    catch (Throwable t)
+    {
+      LOGGER.warn("Failed to send coalesced track lines.", t);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Hashed timer wheel that expires time window histories of tracks that stopped reporting. Each track is placed in the
+ * bucket of its oldest vertex's expiry time; when the bucket comes due the track is trimmed and either re-placed for its
+ * new oldest vertex or dropped from the registry once empty. Only due tracks are visited, and the ingestion path only
+ * touches the wheel when a track is not already scheduled, through a lock-free hand-off queue. The wheel turns with the
+ * processor's window clock; when the clock jumps ahead, as an event clock does on replayed events, every bucket is
+ * visited at most once.
+ */
+public class TimetreeExpiryWheel implements Runnable
+{
+  private static final BundleLogger                LOGGER     = BundleLoggerFactory.getLogger(TimetreeProcessor.class);
+  private static final int                         WHEEL_SIZE = 512;
+  private static final long                        MIN_TICK   = 50;
+  private static final long                        MAX_TICK   = 60000;
+
+  private final TimetreeRegistry                   registry;
+  private final long                               tickMillis;
+  private final LongSupplier                       clock;
+  private final long                               startTime;
+  private final ArrayList<TimeTreeMap>[]           buckets;
+  private final ConcurrentLinkedQueue<TimeTreeMap> pending    = new ConcurrentLinkedQueue<>();
+  private ScheduledExecutorService                 executor;
+  private long                                     tick       = 0;
+
+  @SuppressWarnings("unchecked")
+  public TimetreeExpiryWheel(TimetreeRegistry registry, long maxAge, LongSupplier clock)
+  {
+    this.registry = registry;
+    this.tickMillis = Math.min(MAX_TICK, Math.max(MIN_TICK, maxAge / 64));
+    this.clock = clock;
+    this.startTime = clock.getAsLong();
+    this.buckets = new ArrayList[WHEEL_SIZE];
+    for (int i = 0; i < WHEEL_SIZE; i++)
+      buckets[i] = new ArrayList<>();
+  }
+
+  public synchronized void start()
+  {
+    if (executor == null)
+    {
+      executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+          Thread thread = new Thread(runnable, "timetree-expiry");
+          thread.setDaemon(true);
+          return thread;
+        });
+      executor.scheduleWithFixedDelay(this, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public synchronized void stop()
+  {
+    if (executor != null)
+    {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /**
+   * Hands a track to the sweeper unless it is already scheduled. The caller must hold the track's monitor.
+   */
+  public void schedule(TimeTreeMap timetreeMap)
+  {
+    if (timetreeMap.getExpiryWheel() != this && !timetreeMap.isEmpty())
+    {
+      timetreeMap.setExpiryWheel(this);
+      timetreeMap.setExpiryTime(timetreeMap.getFirstTime() + timetreeMap.getMaxAge());
+      pending.offer(timetreeMap);
+    }
+  }
+
+  @Override
+  public void run()
+  {
+    try
+    {
+      long currentTick = (clock.getAsLong() - startTime) / tickMillis;
+      // a track due on a skipped tick is found in its bucket on the last visit
+      tick = Math.max(tick, currentTick - WHEEL_SIZE + 1);
+      TimeTreeMap timetreeMap;
+      while ((timetreeMap = pending.poll()) != null)
+        place(timetreeMap);
+      while (tick <= currentTick)
+      {
+        expireBucket(tick);
+        tick++;
+      }
+      if (registry.hasReleased())
+        registry.reclaim();
+    }
+    catch (Throwable t)
+    {
+      LOGGER.warn("Failed to expire idle tracks.", t);
+    }
+  }
+
+  private void place(TimeTreeMap timetreeMap)
+  {
+    long expiryTick = Math.max(tick, (timetreeMap.getExpiryTime() - startTime) / tickMillis + 1);
+    buckets[(int) (expiryTick & (WHEEL_SIZE - 1))].add(timetreeMap);
+  }
+
+  private void expireBucket(long currentTick)
+  {
+    ArrayList<TimeTreeMap> bucket = buckets[(int) (currentTick & (WHEEL_SIZE - 1))];
+    int i = 0;
+    while (i < bucket.size())
+    {
+      TimeTreeMap timetreeMap = bucket.get(i);
+      if ((timetreeMap.getExpiryTime() - startTime) / tickMillis + 1 > currentTick)
+      {
+        // due on a later turn of the wheel
+        i++;
+        continue;
+      }
+      TimeTreeMap last = bucket.remove(bucket.size() - 1);
+      if (i < bucket.size())
+        bucket.set(i, last);
+      expire(timetreeMap);
+    }
+  }
+
+  private void expire(TimeTreeMap timetreeMap)
+  {
+    synchronized (timetreeMap)
+    {
+      if (timetreeMap.isRetired())
+        return;
+      timetreeMap.expire(clock.getAsLong());
+      if (timetreeMap.isEmpty())
+      {
+        if (LOGGER.isTraceEnabled())
+          LOGGER.trace("Removing idle track from cache: {0}", timetreeMap.getTrackKey());
+        timetreeMap.setExpiryWheel(null);
+        timetreeMap.setRetired(true);
+        if (registry.remove(timetreeMap.getTrackKey(), timetreeMap))
+          registry.getMetrics().trackExpired();
+      }
+      else
+      {
+        registry.account(timetreeMap);
+        timetreeMap.setExpiryTime(timetreeMap.getFirstTime() + timetreeMap.getMaxAge());
+        place(timetreeMap);
+      }
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package com.esri.geoevent.processor.timetree;
+
+/**
+ * Estimates how often a key was seen recently, in a count-min sketch of 4-bit counters. A key takes one counter in each
+ * of four rows; its frequency is the smallest of them, so collisions only ever overestimate it. Once the sketch counted
+ * ten times as many keys as it is sized for, all counters are halved, so a key that stops being seen fades out and
+ * the sketch follows a changing working set.
+ * <p>
+ * Not thread safe, the registry uses one per stripe under the stripe's monitor.
+ */
+public class TimetreeFrequencySketch
+{
+  private static final long[] SEEDS      = { 0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L };
+  private static final long   RESET_MASK = 0x7777777777777777L;
+
+  private long[]              table      = new long[0];
+  private int                 sampleSize = 0;
+  private int                 additions  = 0;
+
+  /**
+   * Sizes the sketch for the given number of keys, a long of 16 counters per key. Growing the sketch forgets all counts.
+   */
+  public void ensureCapacity(int maxEntries)
+  {
+    int length = Math.max(8, Integer.highestOneBit(Math.max(1, maxEntries - 1)) << 1);
+    sampleSize = 10 * Math.max(1, maxEntries);
+    if (table.length < length)
+    {
+      table = new long[length];
+      additions = 0;
+    }
+  }
+
+  public int frequency(int hash)
+  {
+    int frequency = 15;
+    for (int i = 0; i < SEEDS.length; i++)
+    {
+      long h = spread(hash, i);
+      frequency = Math.min(frequency, (int) (table[index(h)] >>> offset(h)) & 15);
+    }
+    return frequency;
+  }
+
+  public void increment(int hash)
+  {
+    boolean added = false;
+    for (int i = 0; i < SEEDS.length; i++)
+    {
+      long h = spread(hash, i);
+      int index = index(h);
+      int offset = offset(h);
+      if (((table[index] >>> offset) & 15) != 15)
+      {
+        table[index] += 1L << offset;
+        added = true;
+      }
+    }
+    if (added && ++additions >= sampleSize)
+      reset();
+  }
+
+  private void reset()
+  {
+    for (int i = 0; i < table.length; i++)
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    additions >>>= 1;
+  }
+
+  private static long spread(int hash, int row)
+  {
+    long h = (hash + SEEDS[row]) * SEEDS[row];
+    return h ^ (h >>> 31);
+  }
+
+  private int index(long h)
+  {
+    return (int) (h >>> 32) & (table.length - 1);
+  }
+
+  private static int offset(long h)
+  {
+    return ((int) h & 15) << 2;
+  }
+}
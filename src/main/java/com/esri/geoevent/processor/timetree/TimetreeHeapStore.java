@@ -0,0 +1,152 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Vertex columns held in primitive arrays on the heap: the time column, the interleaved x/y column and an optional
+ * kept column.
+ */
+public class TimetreeHeapStore extends TimetreeVertexStore
+{
+  private static final int      VERTEX_BYTES      = 24;
+  private static final long[]   EMPTY_TIMES       = new long[0];
+  private static final double[] EMPTY_COORDINATES = new double[0];
+
+  private long[]                times;
+  private double[]              coordinates;
+  private boolean[]             kept              = null;
+
+  public TimetreeHeapStore(int capacity)
+  {
+    times = new long[capacity];
+    coordinates = new double[capacity << 1];
+  }
+
+  @Override
+  public int capacity()
+  {
+    return times.length;
+  }
+
+  @Override
+  public long getTime(int slot)
+  {
+    return times[slot];
+  }
+
+  @Override
+  public double getX(int slot)
+  {
+    return coordinates[slot << 1];
+  }
+
+  @Override
+  public double getY(int slot)
+  {
+    return coordinates[(slot << 1) + 1];
+  }
+
+  @Override
+  public void set(int slot, long time, double x, double y)
+  {
+    times[slot] = time;
+    coordinates[slot << 1] = x;
+    coordinates[(slot << 1) + 1] = y;
+  }
+
+  @Override
+  public boolean isKept(int slot)
+  {
+    return kept[slot];
+  }
+
+  @Override
+  public void setKept(int slot, boolean value)
+  {
+    kept[slot] = value;
+  }
+
+  @Override
+  public void setKeptColumn(boolean enabled)
+  {
+    kept = enabled ? new boolean[times.length] : null;
+  }
+
+  @Override
+  public void move(int fromSlot, int toSlot)
+  {
+    times[toSlot] = times[fromSlot];
+    coordinates[toSlot << 1] = coordinates[fromSlot << 1];
+    coordinates[(toSlot << 1) + 1] = coordinates[(fromSlot << 1) + 1];
+    if (kept != null)
+      kept[toSlot] = kept[fromSlot];
+  }
+
+  @Override
+  public void resize(int capacity, int head, int size)
+  {
+    long[] newTimes = new long[capacity];
+    double[] newCoordinates = new double[capacity << 1];
+    int run = Math.min(size, times.length - head);
+    System.arraycopy(times, head, newTimes, 0, run);
+    System.arraycopy(times, 0, newTimes, run, size - run);
+    System.arraycopy(coordinates, head << 1, newCoordinates, 0, run << 1);
+    System.arraycopy(coordinates, 0, newCoordinates, run << 1, (size - run) << 1);
+    if (kept != null)
+    {
+      boolean[] newKept = new boolean[capacity];
+      System.arraycopy(kept, head, newKept, 0, run);
+      System.arraycopy(kept, 0, newKept, run, size - run);
+      kept = newKept;
+    }
+    times = newTimes;
+    coordinates = newCoordinates;
+  }
+
+  @Override
+  public void write(ByteBuffer buffer, int head, int size)
+  {
+    int run = Math.min(size, times.length - head);
+    buffer.asLongBuffer().put(times, head, run).put(times, 0, size - run);
+    buffer.position(buffer.position() + (size << 3));
+    buffer.asDoubleBuffer().put(coordinates, head << 1, run << 1).put(coordinates, 0, (size - run) << 1);
+    buffer.position(buffer.position() + (size << 4));
+  }
+
+  @Override
+  public void read(ByteBuffer buffer, int count)
+  {
+    buffer.asLongBuffer().get(times, 0, count);
+    buffer.position(buffer.position() + (count << 3));
+    buffer.asDoubleBuffer().get(coordinates, 0, count << 1);
+    buffer.position(buffer.position() + (count << 4));
+  }
+
+  @Override
+  public void copyCoordinates(ByteBuffer buffer, int first, int count)
+  {
+    int run = Math.min(count, times.length - first);
+    buffer.asDoubleBuffer().put(coordinates, first << 1, run << 1).put(coordinates, 0, (count - run) << 1);
+    buffer.position(buffer.position() + (count << 4));
+  }
+
+  @Override
+  public long getBytes()
+  {
+    return (long) times.length * ((kept != null) ? VERTEX_BYTES + 1 : VERTEX_BYTES);
+  }
+
+  @Override
+  public boolean isOffHeap()
+  {
+    return false;
+  }
+
+  @Override
+  public void release()
+  {
+    times = EMPTY_TIMES;
+    coordinates = EMPTY_COORDINATES;
+    kept = null;
+  }
+}
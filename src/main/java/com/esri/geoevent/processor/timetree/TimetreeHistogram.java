@@ -0,0 +1,96 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent latency histogram with log-linear buckets: every power of two is split into eight sub-buckets, so any
+ * recorded value is reported within 12.5% of its true value. Recording is a bucket index computation and a LongAdder
+ * increment, it does not allocate once the adders' cells exist.
+ */
+public class TimetreeHistogram
+{
+  private static final int  SUB_BUCKET_BITS = 3;
+  private static final int  SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+  private static final int  BUCKETS         = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final LongAdder[] counts          = new LongAdder[BUCKETS];
+  private final LongAdder   total           = new LongAdder();
+  private final LongAdder   sum             = new LongAdder();
+
+  public TimetreeHistogram()
+  {
+    for (int i = 0; i < BUCKETS; i++)
+      counts[i] = new LongAdder();
+  }
+
+  public void record(long value)
+  {
+    if (value < 0)
+      value = 0;
+    counts[bucketOf(value)].increment();
+    total.increment();
+    sum.add(value);
+  }
+
+  public long getCount()
+  {
+    return total.sum();
+  }
+
+  public double getMean()
+  {
+    long count = total.sum();
+    return (count == 0) ? 0 : (double) sum.sum() / count;
+  }
+
+  /**
+   * Returns the upper bound of the bucket holding the given percentile (0-100), or 0 when nothing was recorded.
+   */
+  public long getPercentile(double percentile)
+  {
+    long[] snapshot = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      snapshot[i] = counts[i].sum();
+      count += snapshot[i];
+    }
+    if (count == 0)
+      return 0;
+    long rank = Math.max(1, (long) Math.ceil(count * percentile / 100d));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      seen += snapshot[i];
+      if (seen >= rank)
+        return upperBoundOf(i);
+    }
+    return upperBoundOf(BUCKETS - 1);
+  }
+
+  public void reset()
+  {
+    for (LongAdder count : counts)
+      count.reset();
+    total.reset();
+    sum.reset();
+  }
+
+  private static int bucketOf(long value)
+  {
+    if (value < SUB_BUCKETS)
+      return (int) value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> exponent) & (SUB_BUCKETS - 1);
+    return Math.min(BUCKETS - 1, ((exponent + 1) << SUB_BUCKET_BITS) + subBucket);
+  }
+
+  private static long upperBoundOf(int bucket)
+  {
+    if (bucket < SUB_BUCKETS)
+      return bucket;
+    int exponent = (bucket >> SUB_BUCKET_BITS) - 1;
+    long subBucket = SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1));
+    return ((subBucket + 1) << exponent) - 1;
+  }
+}
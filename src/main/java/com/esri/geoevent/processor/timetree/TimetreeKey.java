@@ -0,0 +1,73 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.util.Objects;
+
+/**
+ * Identity of a track: the GUID of its GeoEvent Definition and its track id, both kept as the strings the events carry.
+ * Each lock stripe of the registry reuses a probe key for lookups, so finding an existing track builds neither a key
+ * nor a concatenated string.
+ */
+public final class TimetreeKey
+{
+  private String definitionGuid;
+  private String trackId;
+  private int    hash;
+
+  public TimetreeKey(String definitionGuid, String trackId)
+  {
+    set(definitionGuid, trackId, hash(definitionGuid, trackId));
+  }
+
+  TimetreeKey()
+  {
+  }
+
+  /**
+   * Only used on probe keys, keys stored in the registry never change.
+   */
+  TimetreeKey set(String definitionGuid, String trackId, int hash)
+  {
+    this.definitionGuid = definitionGuid;
+    this.trackId = trackId;
+    this.hash = hash;
+    return this;
+  }
+
+  static int hash(String definitionGuid, String trackId)
+  {
+    return 31 * Objects.hashCode(definitionGuid) + Objects.hashCode(trackId);
+  }
+
+  public String getDefinitionGuid()
+  {
+    return definitionGuid;
+  }
+
+  public String getTrackId()
+  {
+    return trackId;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (this == obj)
+      return true;
+    if (!(obj instanceof TimetreeKey))
+      return false;
+    TimetreeKey other = (TimetreeKey) obj;
+    return hash == other.hash && Objects.equals(trackId, other.trackId) && Objects.equals(definitionGuid, other.definitionGuid);
+  }
+
+  @Override
+  public String toString()
+  {
+    return definitionGuid + "_" + trackId;
+  }
+}
@@ -0,0 +1,403 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime metrics of a Timetree processor. Counters are LongAdders and latencies go into TimetreeHistograms so the
+ * recording side never allocates or contends on a shared lock; rates and percentiles are only computed when read.
+ */
+public class TimetreeMetrics implements TimetreeMetricsMBean
+{
+  private static final long       NANOS_PER_MICRO         = TimeUnit.MICROSECONDS.toNanos(1);
+
+  private final LongAdder         events                  = new LongAdder();
+  private final LongAdder         duplicatesDropped       = new LongAdder();
+  private final LongAdder         lateEventsDropped       = new LongAdder();
+  private final LongAdder         verticesExpiredByAge    = new LongAdder();
+  private final LongAdder         verticesTrimmedBySize   = new LongAdder();
+  private final LongAdder         verticesDownsampled     = new LongAdder();
+  private final LongAdder         trackHits               = new LongAdder();
+  private final LongAdder         trackMisses             = new LongAdder();
+  private final LongAdder         tracksEvictedMaxEntries = new LongAdder();
+  private final LongAdder         tracksEvictedMemory     = new LongAdder();
+  private final LongAdder         tracksExpired           = new LongAdder();
+  private final LongAdder         outputGeometries        = new LongAdder();
+  private final LongAdder         outputVertices          = new LongAdder();
+  private final LongAdder         linesSent               = new LongAdder();
+  private final LongAdder         updatesCoalesced        = new LongAdder();
+  private final LongAdder         snapshotLinesSent       = new LongAdder();
+  private final LongAdder         snapshotRetries         = new LongAdder();
+  private volatile long           lastSnapshotMillis      = 0;
+  private final LongAdder         eventsDropped           = new LongAdder();
+  private final TimetreeHistogram processLatency          = new TimetreeHistogram();
+  private final TimetreeHistogram geometryLatency         = new TimetreeHistogram();
+
+  private TimetreeRegistry        registry;
+  private TimetreeSlabAllocator   slabAllocator;
+  private TimetreePipeline        pipeline;
+  private long                    rateEvents              = 0;
+  private long                    rateTime                = System.nanoTime();
+  private double                  eventsPerSecond         = 0;
+
+  public void setRegistry(TimetreeRegistry registry)
+  {
+    this.registry = registry;
+  }
+
+  public void setSlabAllocator(TimetreeSlabAllocator slabAllocator)
+  {
+    this.slabAllocator = slabAllocator;
+  }
+
+  public void setPipeline(TimetreePipeline pipeline)
+  {
+    this.pipeline = pipeline;
+  }
+
+  public void recordProcess(long nanos)
+  {
+    events.increment();
+    processLatency.record(nanos);
+  }
+
+  public void recordGeometry(long nanos)
+  {
+    geometryLatency.record(nanos);
+  }
+
+  public void recordOutput(int vertices)
+  {
+    outputGeometries.increment();
+    outputVertices.add(vertices);
+  }
+
+  public void lineSent()
+  {
+    linesSent.increment();
+  }
+
+  public void updateCoalesced()
+  {
+    updatesCoalesced.increment();
+  }
+
+  public void snapshotLineSent()
+  {
+    snapshotLinesSent.increment();
+  }
+
+  public void snapshotRetried()
+  {
+    snapshotRetries.increment();
+  }
+
+  public void recordSnapshot(long millis)
+  {
+    lastSnapshotMillis = millis;
+  }
+
+  public void eventDropped()
+  {
+    eventsDropped.increment();
+  }
+
+  public void lateEventDropped()
+  {
+    lateEventsDropped.increment();
+  }
+
+  public void duplicateDropped()
+  {
+    duplicatesDropped.increment();
+  }
+
+  public void vertexExpiredByAge()
+  {
+    verticesExpiredByAge.increment();
+  }
+
+  public void vertexTrimmedBySize()
+  {
+    verticesTrimmedBySize.increment();
+  }
+
+  public void vertexDownsampled()
+  {
+    verticesDownsampled.increment();
+  }
+
+  public void trackHit()
+  {
+    trackHits.increment();
+  }
+
+  public void trackMissed()
+  {
+    trackMisses.increment();
+  }
+
+  public void trackEvictedByMaxEntries()
+  {
+    tracksEvictedMaxEntries.increment();
+  }
+
+  public void trackEvictedByMemoryLimit()
+  {
+    tracksEvictedMemory.increment();
+  }
+
+  public void trackExpired()
+  {
+    tracksExpired.increment();
+  }
+
+  @Override
+  public long getEventCount()
+  {
+    return events.sum();
+  }
+
+  /**
+   * Event rate since the previous call, recomputed at most once a second.
+   */
+  @Override
+  public synchronized double getEventsPerSecond()
+  {
+    long now = System.nanoTime();
+    long elapsed = now - rateTime;
+    if (elapsed >= TimeUnit.SECONDS.toNanos(1))
+    {
+      long count = events.sum();
+      eventsPerSecond = (count - rateEvents) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+      rateEvents = count;
+      rateTime = now;
+    }
+    return eventsPerSecond;
+  }
+
+  @Override
+  public int getTrackCount()
+  {
+    return (registry != null) ? registry.size() : 0;
+  }
+
+  @Override
+  public long getVertexCount()
+  {
+    return (registry != null) ? registry.getVertexCount() : 0;
+  }
+
+  @Override
+  public long getEstimatedBytes()
+  {
+    return (registry != null) ? registry.getEstimatedBytes() : 0;
+  }
+
+  @Override
+  public long getOffHeapBytes()
+  {
+    TimetreeSlabAllocator allocator = slabAllocator;
+    return (allocator != null) ? allocator.getReservedBytes() : 0;
+  }
+
+  @Override
+  public long getDuplicatesDropped()
+  {
+    return duplicatesDropped.sum();
+  }
+
+  @Override
+  public long getLateEventsDropped()
+  {
+    return lateEventsDropped.sum();
+  }
+
+  @Override
+  public long getVerticesExpiredByAge()
+  {
+    return verticesExpiredByAge.sum();
+  }
+
+  @Override
+  public long getVerticesTrimmedBySize()
+  {
+    return verticesTrimmedBySize.sum();
+  }
+
+  @Override
+  public long getVerticesDownsampled()
+  {
+    return verticesDownsampled.sum();
+  }
+
+  @Override
+  public long getTrackHits()
+  {
+    return trackHits.sum();
+  }
+
+  @Override
+  public long getTrackMisses()
+  {
+    return trackMisses.sum();
+  }
+
+  @Override
+  public long getTracksEvictedByMaxEntries()
+  {
+    return tracksEvictedMaxEntries.sum();
+  }
+
+  @Override
+  public long getTracksEvictedByMemoryLimit()
+  {
+    return tracksEvictedMemory.sum();
+  }
+
+  @Override
+  public long getTracksExpired()
+  {
+    return tracksExpired.sum();
+  }
+
+  @Override
+  public long getLinesSent()
+  {
+    return linesSent.sum();
+  }
+
+  @Override
+  public long getUpdatesCoalesced()
+  {
+    return updatesCoalesced.sum();
+  }
+
+  @Override
+  public long getSnapshotLinesSent()
+  {
+    return snapshotLinesSent.sum();
+  }
+
+  @Override
+  public long getSnapshotRetries()
+  {
+    return snapshotRetries.sum();
+  }
+
+  @Override
+  public long getLastSnapshotMillis()
+  {
+    return lastSnapshotMillis;
+  }
+
+  @Override
+  public long getEventsDropped()
+  {
+    return eventsDropped.sum();
+  }
+
+  /**
+   * Events waiting in the queues of the processing partitions.
+   */
+  @Override
+  public int getQueuedEvents()
+  {
+    TimetreePipeline current = pipeline;
+    return (current != null) ? current.getQueuedEvents() : 0;
+  }
+
+  @Override
+  public double getOutputVerticesMean()
+  {
+    long geometries = outputGeometries.sum();
+    return (geometries == 0) ? 0 : (double) outputVertices.sum() / geometries;
+  }
+
+  @Override
+  public double getProcessLatencyMean()
+  {
+    return processLatency.getMean() / NANOS_PER_MICRO;
+  }
+
+  @Override
+  public long getProcessLatency50()
+  {
+    return processLatency.getPercentile(50) / NANOS_PER_MICRO;
+  }
+
+  @Override
+  public long getProcessLatency99()
+  {
+    return processLatency.getPercentile(99) / NANOS_PER_MICRO;
+  }
+
+  @Override
+  public long getProcessLatency999()
+  {
+    return processLatency.getPercentile(99.9) / NANOS_PER_MICRO;
+  }
+
+  @Override
+  public double getGeometryLatencyMean()
+  {
+    return geometryLatency.getMean() / NANOS_PER_MICRO;
+  }
+
+  @Override
+  public long getGeometryLatency50()
+  {
+    return geometryLatency.getPercentile(50) / NANOS_PER_MICRO;
+  }
+
+  @Override
+  public long getGeometryLatency99()
+  {
+    return geometryLatency.getPercentile(99) / NANOS_PER_MICRO;
+  }
+
+  @Override
+  public long getGeometryLatency999()
+  {
+    return geometryLatency.getPercentile(99.9) / NANOS_PER_MICRO;
+  }
+
+  @Override
+  public void reset()
+  {
+    events.reset();
+    duplicatesDropped.reset();
+    lateEventsDropped.reset();
+    verticesExpiredByAge.reset();
+    verticesTrimmedBySize.reset();
+    verticesDownsampled.reset();
+    trackHits.reset();
+    trackMisses.reset();
+    tracksEvictedMaxEntries.reset();
+    tracksEvictedMemory.reset();
+    tracksExpired.reset();
+    outputGeometries.reset();
+    outputVertices.reset();
+    linesSent.reset();
+    updatesCoalesced.reset();
+    snapshotLinesSent.reset();
+    snapshotRetries.reset();
+    lastSnapshotMillis = 0;
+    eventsDropped.reset();
+    processLatency.reset();
+    geometryLatency.reset();
+    synchronized (this)
+    {
+      rateEvents = 0;
+      rateTime = System.nanoTime();
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("Events: %d (%.1f/s), Tracks: %d, Vertices: %d, Estimated Memory: %d KB, Off-Heap Memory: %d KB, Duplicates Dropped: %d, Late Events Dropped: %d, Vertices Removed (age/size/downsampled): %d/%d/%d, Track Lookups (hit/miss): %d/%d, Tracks Evicted (max entries/memory limit/idle): %d/%d/%d, Output Vertices (mean): %.1f, Lines Sent: %d, Updates Coalesced: %d, Snapshot Lines Sent: %d, Snapshot Retries: %d, Last Snapshot: %d ms, Queued Events: %d, Events Dropped: %d, Process Latency (mean/p50/p99/p99.9): %.1f/%d/%d/%d us, Geometry Latency (mean/p50/p99/p99.9): %.1f/%d/%d/%d us",
+        getEventCount(), getEventsPerSecond(), getTrackCount(), getVertexCount(), getEstimatedBytes() / 1024, getOffHeapBytes() / 1024, getDuplicatesDropped(), getLateEventsDropped(), getVerticesExpiredByAge(), getVerticesTrimmedBySize(), getVerticesDownsampled(), getTrackHits(), getTrackMisses(), getTracksEvictedByMaxEntries(), getTracksEvictedByMemoryLimit(), getTracksExpired(), getOutputVerticesMean(), getLinesSent(), getUpdatesCoalesced(), getSnapshotLinesSent(), getSnapshotRetries(), getLastSnapshotMillis(), getQueuedEvents(), getEventsDropped(),
+        getProcessLatencyMean(), getProcessLatency50(), getProcessLatency99(), getProcessLatency999(), getGeometryLatencyMean(), getGeometryLatency50(), getGeometryLatency99(), getGeometryLatency999());
+  }
+}
@@ -0,0 +1,73 @@
+package com.esri.geoevent.processor.timetree;
+
+/**
+ * JMX view of a Timetree processor's runtime metrics. Latencies are in microseconds.
+ */
+public interface TimetreeMetricsMBean
+{
+  long getEventCount();
+
+  double getEventsPerSecond();
+
+  int getTrackCount();
+
+  long getVertexCount();
+
+  long getEstimatedBytes();
+
+  long getOffHeapBytes();
+
+  long getDuplicatesDropped();
+
+  long getLateEventsDropped();
+
+  long getVerticesExpiredByAge();
+
+  long getVerticesTrimmedBySize();
+
+  long getVerticesDownsampled();
+
+  long getTrackHits();
+
+  long getTrackMisses();
+
+  long getTracksEvictedByMaxEntries();
+
+  long getTracksEvictedByMemoryLimit();
+
+  long getTracksExpired();
+
+  double getOutputVerticesMean();
+
+  long getLinesSent();
+
+  long getUpdatesCoalesced();
+
+  long getSnapshotLinesSent();
+
+  long getSnapshotRetries();
+
+  long getLastSnapshotMillis();
+
+  long getEventsDropped();
+
+  int getQueuedEvents();
+
+  double getProcessLatencyMean();
+
+  long getProcessLatency50();
+
+  long getProcessLatency99();
+
+  long getProcessLatency999();
+
+  double getGeometryLatencyMean();
+
+  long getGeometryLatency50();
+
+  long getGeometryLatency99();
+
+  long getGeometryLatency999();
+
+  void reset();
+}
@@ -0,0 +1,173 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Runs the work of a processor on a fixed number of partitions instead of the threads calling process(). Events are
+ * assigned to a partition by the hash of their track key and each partition is a bounded queue with a single thread,
+ * so the events of a track are processed in the order they arrived while a slow track only holds up its own partition.
+ * Lines are sent through the processor's producer.
+ * <p>
+ * A full queue either blocks the calling thread until there is room, pushing back on the input, or drops the event.
+ * Stopping drains the queues: events already accepted are processed and their lines sent before stop() returns.
+ */
+public class TimetreePipeline
+{
+  private static final BundleLogger            LOGGER      = BundleLoggerFactory.getLogger(TimetreeProcessor.class);
+  private static final long                    POLL_MILLIS = 100;
+
+  private final TimetreeProcessor              processor;
+  private final TimetreeMetrics                metrics;
+  private final boolean                        dropOnFull;
+  private final ArrayBlockingQueue<GeoEvent>[] queues;
+  private final Thread[]                       threads;
+  // threads between checking the pipeline is running and handing their event over
+  private final AtomicInteger                  submitting  = new AtomicInteger();
+  private volatile boolean                     running     = false;
+  private volatile boolean                     stopped     = false;
+
+  @SuppressWarnings("unchecked")
+  public TimetreePipeline(TimetreeProcessor processor, TimetreeMetrics metrics, int partitions, int capacity, boolean dropOnFull)
+  {
+    this.processor = processor;
+    this.metrics = metrics;
+    this.dropOnFull = dropOnFull;
+    queues = new ArrayBlockingQueue[partitions];
+    threads = new Thread[partitions];
+    for (int i = 0; i < partitions; i++)
+    {
+      final ArrayBlockingQueue<GeoEvent> queue = new ArrayBlockingQueue<>(capacity);
+      queues[i] = queue;
+      threads[i] = new Thread(() -> drain(queue), "timetree-partition-" + i);
+      threads[i].setDaemon(true);
+    }
+  }
+
+  public synchronized void start()
+  {
+    if (!running && !stopped)
+    {
+      running = true;
+      for (Thread thread : threads)
+        thread.start();
+    }
+  }
+
+  /**
+   * Stops accepting events, waits until the events already accepted are processed and ends the partition threads.
+   */
+  public synchronized void stop()
+  {
+    if (!running)
+      return;
+    running = false;
+    // a thread blocked on a full queue gets in once the partition made room for it
+    while (submitting.get() > 0)
+      Thread.yield();
+    stopped = true;
+    for (Thread thread : threads)
+    {
+      try
+      {
+        thread.join();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        LOGGER.warn("Interrupted while draining the processing partitions, events may not have been sent.");
+        return;
+      }
+    }
+  }
+
+  /**
+   * Hands the event to the partition of its track. Returns false when the pipeline is not running, the caller then has
+   * to process the event itself.
+   */
+  public boolean submit(GeoEvent geoEvent) throws InterruptedException
+  {
+    submitting.incrementAndGet();
+    try
+    {
+      if (!running)
+        return false;
+      int hash = TimetreeKey.hash(geoEvent.getGeoEventDefinition().getGuid(), geoEvent.getTrackId());
+      ArrayBlockingQueue<GeoEvent> queue = queues[Math.floorMod(hash ^ (hash >>> 16), queues.length)];
+      if (dropOnFull)
+      {
+        if (!queue.offer(geoEvent))
+        {
+          metrics.eventDropped();
+          if (LOGGER.isDebugEnabled())
+            LOGGER.debug("Processing queue is full, dropped event: {0}", geoEvent);
+        }
+      }
+      else
+      {
+        queue.put(geoEvent);
+      }
+      return true;
+    }
+    finally
+    {
+      submitting.decrementAndGet();
+    }
+  }
+
+  /**
+   * Events waiting in the partition queues.
+   */
+  public int getQueuedEvents()
+  {
+    int count = 0;
+    for (ArrayBlockingQueue<GeoEvent> queue : queues)
+      count += queue.size();
+    return count;
+  }
+
+  private void drain(ArrayBlockingQueue<GeoEvent> queue)
+  {
+    try
+    {
+      while (true)
+      {
+        GeoEvent geoEvent = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (geoEvent != null)
+          handle(geoEvent);
+        else if (stopped)
+          break;
+      }
+      // nothing is added once stopped is set, but an event may have arrived after the last poll
+      GeoEvent geoEvent;
+      while ((geoEvent = queue.poll()) != null)
+        handle(geoEvent);
+    }
+    catch (InterruptedException e)
+    {
+      LOGGER.warn("Processing partition {0} was interrupted with {1} events queued.", Thread.currentThread().getName(), queue.size());
+    }
+  }
+
+  private void handle(GeoEvent geoEvent)
+  {
+    try
+    {
+      GeoEvent result = processor.processEvent(geoEvent);
+      if (result != null)
+      {
+        processor.send(result);
+        metrics.lineSent();
+      }
+    }
+    catch (Throwable t)
+    {
+      LOGGER.warn("Failed to process event on partition " + Thread.currentThread().getName() + ".", t);
+    }
+  }
+}
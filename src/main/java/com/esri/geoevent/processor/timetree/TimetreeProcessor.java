@@ -1,15 +1,23 @@
 package com.esri.geoevent.processor.timetree;
 
+import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Observable;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.esri.core.geometry.MapGeometry;
+import com.esri.core.geometry.MultiPath;
 import com.esri.ges.core.component.ComponentException;
+import com.esri.ges.core.geoevent.FieldException;
 import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.core.geoevent.GeoEventDefinition;
 import com.esri.ges.core.geoevent.GeoEventPropertyName;
 import com.esri.ges.core.property.Property;
 import com.esri.ges.core.validation.ValidationException;
@@ -17,7 +25,6 @@ import com.esri.ges.framework.i18n.BundleLogger;
 import com.esri.ges.framework.i18n.BundleLoggerFactory;
 import com.esri.ges.messaging.EventDestination;
 import com.esri.ges.messaging.EventUpdatable;
-import com.esri.ges.messaging.GeoEventCreator;
 import com.esri.ges.messaging.GeoEventProducer;
 import com.esri.ges.messaging.Messaging;
 import com.esri.ges.messaging.MessagingException;
@@ -33,78 +40,513 @@ public class TimetreeProcessor extends GeoEventProcessorBase implements GeoEvent
 {
   private static final BundleLogger      LOGGER             = BundleLoggerFactory.getLogger(TimetreeProcessor.class);
   private static final int               MAX_ENTRIES        = 20000;
+  private static final LongSupplier      SYSTEM_CLOCK       = System::currentTimeMillis;
 
-  private final Map<String, TimeTreeMap> geoEventTimeKeySet = Collections.synchronizedMap(new LinkedHashMap<String, TimeTreeMap>()
-                                                              {
-                                                                private static final long serialVersionUID = 3497816525702669924L;
-
-                                                                protected boolean removeEldestEntry(Map.Entry<String, TimeTreeMap> eldest)
-                                                                {
-                                                                  return size() > MAX_ENTRIES;
-                                                                }
-                                                              });
+  private final TimetreeMetrics          metrics            = new TimetreeMetrics();
+  private final TimetreeRegistry         ownTracks          = new TimetreeRegistry(MAX_ENTRIES, this::createTimeTreeMap, metrics);
+  private final TimetreeWatermark        watermark          = new TimetreeWatermark();
+  // the processor's own tracks and event clock, or those of the shared store it is attached to
+  private volatile TimetreeRegistry      geoEventTimeKeySet = ownTracks;
+  private volatile TimetreeWatermark     eventWatermark     = watermark;
+  private volatile TimetreeExpiryWheel   expiryWheel;
+  private TimetreeProcessorService       processorService;
+  private TimetreeStore                  sharedStore;
+  private TimetreeCheckpoint             checkpoint;
+  private TimetreeEmitter                emitter;
+  private TimetreeSnapshotPublisher      snapshotPublisher;
+  private TimetreePipeline               pipeline;
+  private ObjectName                     metricsName;
+  private TimetreeTrackSettings          trackSettings;
 
   private Messaging                      messaging;
-  private GeoEventCreator                geoEventCreator;
   private GeoEventProducer               geoEventProducer;
 
   private boolean                        isDelayCount       = false;
-  private short                          delayCount;
+  private int                            delayCount;
   private long                           delayValue;
   private TimeUnit                       delayValueUnit;
   private long                           delayMilliseconds  = 0;
   private String                         delayField         = RECEIVED_TIME;
+  private boolean                        eventClock         = false;
+  private long                           allowedLateness    = 0;
+  private double                         dedupeTolerance    = 0;
+  private double                         lineTolerance      = 0;
+  private long[]                         tierAges           = null;
+  private long[]                         tierIntervals      = null;
+  private String[]                       windowFields       = new String[0];
+  private long[]                         windowMillis       = new long[0];
+  private boolean                        trackStatistics    = false;
+  private int                            maxTracks          = MAX_ENTRIES;
+  private long                           memoryLimit        = 0;
+  private boolean                        offHeapStorage     = false;
+  private TimetreeSlabAllocator          slabAllocator      = null;
+  private double                         vertexPrecision    = 0;
+  private boolean                        coalesceOutput     = false;
+  private long                           emitInterval       = 1000;
+  private int                            emitUpdates        = 0;
+  private boolean                        deltaOutput        = false;
+  private int                            keyframeInterval   = 100;
+  private long                           snapshotInterval   = 0;
+  private String                         checkpointFolder   = "";
+  private long                           checkpointPeriod   = 60;
+  private String                         sharedStoreName    = "";
+  private int                            partitions         = 0;
+  private int                            queueCapacity      = 10000;
+  private boolean                        dropOnFull         = false;
 
   public TimetreeProcessor(GeoEventProcessorDefinition definition) throws ComponentException
   {
     super(definition);
+    metrics.setRegistry(geoEventTimeKeySet);
   }
 
   @Override
   public GeoEvent process(GeoEvent geoEvent) throws Exception
+  {
+    // with partitions the line is sent by the partition's thread
+    final TimetreePipeline pipeline = this.pipeline;
+    if (geoEvent != null && pipeline != null && pipeline.submit(geoEvent))
+      return null;
+    return processEvent(geoEvent);
+  }
+
+  /**
+   * Adds the event to the history of its track and returns it with the track's line, or null when there is no line to
+   * return. Called by process() or by the thread of the event's partition.
+   */
+  GeoEvent processEvent(GeoEvent geoEvent) throws Exception
   {
     GeoEvent result = null;
     if (geoEvent != null)
     {
-      GeoEvent geoEventCopy = geoEventCreator.create(geoEvent.getGeoEventDefinition().getGuid(), geoEvent.getAllFields());
+      long startTime = System.nanoTime();
       if (LOGGER.isTraceEnabled())
       {
         if (isDelayCount)
-          LOGGER.trace("Processing event with Count={0}: {1}", delayCount, geoEventCopy);
+          LOGGER.trace("Processing event with Count={0}: {1}", delayCount, geoEvent);
         else
-          LOGGER.trace("Processing event with {2} time window={0} {1}: {3}", delayValue, delayValueUnit, delayField, geoEventCopy);
+          LOGGER.trace("Processing event with {2} time window={0} {1}: {3}", delayValue, delayValueUnit, delayField, geoEvent);
       }
 
-      final TimetreeGeoEvent delayedGeoEvent = new TimetreeGeoEvent(geoEventCopy, delayField);
-      TimeTreeMap timetreeMap = geoEventTimeKeySet.get(delayedGeoEvent.getTrackKey());
-      if (timetreeMap == null)
+      // only the time and location are kept, the event itself is not copied or retained
+      final String definitionGuid = geoEvent.getGeoEventDefinition().getGuid();
+      final String trackId = geoEvent.getTrackId();
+      final long time = timeOf(geoEvent);
+      // late events are counted on their own, they are not processed
+      if (eventClock && isLate(geoEvent, time))
+        return null;
+      final MapGeometry location = geoEvent.getGeometry();
+      final TimetreeEmitter emitter = this.emitter;
+      final TimetreeRegistry geoEventTimeKeySet = this.geoEventTimeKeySet;
+      final TimetreeExpiryWheel expiryWheel = this.expiryWheel;
+      final boolean snapshots = snapshotPublisher != null;
+      MapGeometry geometry = null;
+      GeoEvent coalesced = null;
+      boolean added = false;
+      while (!added)
       {
-        if (isDelayCount)
-          timetreeMap = new TimeTreeMap(delayCount);
-        else
-          timetreeMap = new TimeTreeMap(delayMilliseconds);
-        geoEventTimeKeySet.put(delayedGeoEvent.getTrackKey(), timetreeMap);
+        TimeTreeMap timetreeMap = geoEventTimeKeySet.getOrCreate(definitionGuid, trackId);
+        synchronized (timetreeMap)
+        {
+          // the expiry sweeper may have dropped the track while we waited for it
+          if (timetreeMap.isRetired())
+            continue;
+          timetreeMap.put(time, location);
+          if (snapshots)
+            timetreeMap.setLatestEvent(geoEvent);
+          geoEventTimeKeySet.account(timetreeMap);
+          if (expiryWheel != null)
+            expiryWheel.schedule(timetreeMap);
+          if (emitter != null)
+          {
+            if (emitter.update(timetreeMap, geoEvent))
+              coalesced = emitter.take(timetreeMap);
+          }
+          else
+          {
+            geometry = createGeometry(timetreeMap);
+            if (geometry != null)
+            {
+              setWindowGeometries(timetreeMap, geoEvent);
+              setDeltaFields(timetreeMap, geoEvent);
+              setStatisticsFields(timetreeMap, geoEvent);
+            }
+          }
+          added = true;
+        }
       }
-      timetreeMap.put(delayedGeoEvent.getTime(), delayedGeoEvent);
+      if (geoEventTimeKeySet.isOverMemoryLimit())
+        geoEventTimeKeySet.trimToMemoryLimit();
+      if (geoEventTimeKeySet.hasReleased())
+        geoEventTimeKeySet.reclaim();
 
-      if (timetreeMap.keySet().size() > 1)
+      if (emitter != null)
       {
-        if (isDelayCount)
-          geoEvent.setGeometry(timetreeMap.getGeometryByCount(delayCount));
-        else
-          geoEvent.setGeometry(timetreeMap.getGeometryByTime(delayMilliseconds));
+        // the line is sent by the emitter, either right away or on its next flush
+        if (coalesced != null)
+        {
+          send(coalesced);
+          metrics.lineSent();
+        }
+      }
+      else if (geometry != null)
+      {
+        geoEvent.setGeometry(geometry);
 
         if (geoEvent.getGeometry() != null)
           result = geoEvent;
       }
-      else
+      else if (LOGGER.isDebugEnabled())
       {
         LOGGER.debug("Can't create new GeoEvent with line geometry, only one point in the history: ", geoEvent);
       }
+      metrics.recordProcess(System.nanoTime() - startTime);
     }
     return result;
   }
 
+  /**
+   * Processes a burst of events, e.g. a feed catching up after a reconnect or a replayed file, grouped by track: each
+   * track is looked up and locked once and its events are added in time order, with the tracks processed in parallel on
+   * the common fork-join pool. With coalesced output the events of a track are added with a single trim of its history
+   * and at most one line is built for the track. Returns the events that got a line, in the order they were received;
+   * with coalesced output the lines are sent through the processor's output instead. With partitions the events are
+   * queued on the partitions of their tracks like those of process(), so they stay in order with the events of their
+   * tracks process() received before, and the partitions send the lines.
+   */
+  public List<GeoEvent> processBatch(List<GeoEvent> geoEvents)
+  {
+    int submitted = 0;
+    final TimetreePipeline pipeline = this.pipeline;
+    if (pipeline != null)
+    {
+      submitted = submit(pipeline, geoEvents);
+      if (submitted == geoEvents.size())
+        return Collections.emptyList();
+    }
+
+    TimetreeBatch batch = new TimetreeBatch(this, geoEvents.size() - submitted);
+    for (GeoEvent geoEvent : geoEvents.subList(submitted, geoEvents.size()))
+    {
+      if (geoEvent == null)
+        continue;
+      long time = timeOf(geoEvent);
+      // late events are counted on their own, they are not processed
+      if (!eventClock || !isLate(geoEvent, time))
+        batch.add(geoEvent, time);
+    }
+    if (batch.size() == 0)
+      return Collections.emptyList();
+    List<GeoEvent> lines = batch.process();
+
+    final TimetreeRegistry geoEventTimeKeySet = this.geoEventTimeKeySet;
+    if (geoEventTimeKeySet.isOverMemoryLimit())
+      geoEventTimeKeySet.trimToMemoryLimit();
+    if (geoEventTimeKeySet.hasReleased())
+      geoEventTimeKeySet.reclaim();
+    return lines;
+  }
+
+  /**
+   * Hands the events of a batch to the partitions of their tracks, in order. Returns how many were handed over: all of
+   * them, or the events before the first one the pipeline no longer accepted because it stopped meanwhile.
+   */
+  private int submit(TimetreePipeline pipeline, List<GeoEvent> geoEvents)
+  {
+    int submitted = 0;
+    try
+    {
+      for (GeoEvent geoEvent : geoEvents)
+      {
+        if (geoEvent != null && !pipeline.submit(geoEvent))
+          break;
+        submitted++;
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      LOGGER.warn("Interrupted while queueing a batch on the processing partitions, dropped {0} events.", geoEvents.size() - submitted);
+      for (int i = submitted; i < geoEvents.size(); i++)
+        metrics.eventDropped();
+      submitted = geoEvents.size();
+    }
+    return submitted;
+  }
+
+  /**
+   * Adds the events of one track of a batch, sorted by time, under a single lookup and lock of the track. Called by
+   * the fork-join thread processing the track; each event is counted with its share of the track's processing time.
+   */
+  void processTrack(TimetreeBatch.Track track)
+  {
+    long startTime = System.nanoTime();
+    final TimetreeEmitter emitter = this.emitter;
+    final TimetreeRegistry geoEventTimeKeySet = this.geoEventTimeKeySet;
+    final TimetreeExpiryWheel expiryWheel = this.expiryWheel;
+    final boolean snapshots = snapshotPublisher != null;
+    final int count = track.size();
+    GeoEvent coalesced = null;
+    boolean added = false;
+    while (!added)
+    {
+      TimeTreeMap timetreeMap = geoEventTimeKeySet.getOrCreate(track.getDefinitionGuid(), track.getTrackId());
+      synchronized (timetreeMap)
+      {
+        // the expiry sweeper may have dropped the track while we waited for it
+        if (timetreeMap.isRetired())
+          continue;
+        if (snapshots)
+          timetreeMap.setLatestEvent(track.getEvent(count - 1));
+        if (emitter != null)
+        {
+          timetreeMap.putAll(track.getTimes(), track.getLocations(), count);
+          boolean due = false;
+          for (int i = 0; i < count; i++)
+            due |= emitter.update(timetreeMap, track.getEvent(i));
+          if (due)
+            coalesced = emitter.take(timetreeMap);
+        }
+        else
+        {
+          // every event gets the line as of its own arrival
+          for (int i = 0; i < count; i++)
+          {
+            GeoEvent geoEvent = track.getEvent(i);
+            timetreeMap.put(track.getTimes()[i], track.getLocations()[i]);
+            MapGeometry geometry = createGeometry(timetreeMap);
+            if (geometry != null)
+            {
+              setWindowGeometries(timetreeMap, geoEvent);
+              setDeltaFields(timetreeMap, geoEvent);
+              setStatisticsFields(timetreeMap, geoEvent);
+              geoEvent.setGeometry(geometry);
+              if (geoEvent.getGeometry() != null)
+                track.setLine(i, geoEvent);
+            }
+          }
+        }
+        geoEventTimeKeySet.account(timetreeMap);
+        if (expiryWheel != null)
+          expiryWheel.schedule(timetreeMap);
+        added = true;
+      }
+    }
+    if (coalesced != null)
+    {
+      try
+      {
+        send(coalesced);
+        metrics.lineSent();
+      }
+      catch (MessagingException e)
+      {
+        LOGGER.warn("Failed to send track line.", e);
+      }
+    }
+    long eventNanos = (System.nanoTime() - startTime) / count;
+    for (int i = 0; i < count; i++)
+      metrics.recordProcess(eventNanos);
+  }
+
+  /**
+   * Advances the event clock to the time of the event and tells whether the window already passed the event, which
+   * would only be expired again. Late events are counted and dropped.
+   */
+  private boolean isLate(GeoEvent geoEvent, long time)
+  {
+    final TimetreeWatermark watermark = eventWatermark;
+    watermark.advance(time);
+    if (time >= watermark.getAsLong() - delayMilliseconds)
+      return false;
+    metrics.lateEventDropped();
+    if (LOGGER.isDebugEnabled())
+      LOGGER.debug("Dropped event behind the event clock: {0}", geoEvent);
+    return true;
+  }
+
+  /**
+   * The time of the configured window time field.
+   */
+  private long timeOf(GeoEvent geoEvent)
+  {
+    if (TIME_END.equals(delayField))
+      return geoEvent.getEndTime().getTime();
+    if (TIME_START.equals(delayField))
+      return geoEvent.getStartTime().getTime();
+    return geoEvent.getReceivedTime().getTime();
+  }
+
+  /**
+   * Builds the line of a track for the configured window, or null while the track has a single point. With delta output
+   * the line only holds the vertices gained since the track's previous line, unless it is a keyframe. The caller must
+   * hold the track's monitor.
+   */
+  MapGeometry createGeometry(TimeTreeMap timetreeMap)
+  {
+    MapGeometry geometry = null;
+    if (timetreeMap.size() > 1)
+    {
+      long geometryTime = System.nanoTime();
+      if (timetreeMap.getDelta() != null)
+        geometry = isDelayCount ? timetreeMap.getDeltaByCount(delayCount) : timetreeMap.getDeltaByTime(delayMilliseconds);
+      else if (isDelayCount)
+        geometry = timetreeMap.getGeometryByCount(delayCount);
+      else
+        geometry = timetreeMap.getGeometryByTime(delayMilliseconds);
+      metrics.recordGeometry(System.nanoTime() - geometryTime);
+      recordOutput(geometry);
+    }
+    return geometry;
+  }
+
+  /**
+   * Counts a line built for the output with its vertices. Lines are counted by the processor rather than the track, so
+   * the lines of a shared store's tracks are counted for the processor that built them.
+   */
+  void recordOutput(MapGeometry geometry)
+  {
+    if (geometry != null && geometry.getGeometry() instanceof MultiPath)
+    {
+      int vertices = ((MultiPath) geometry.getGeometry()).getPointCount();
+      if (vertices > 0)
+        metrics.recordOutput(vertices);
+    }
+  }
+
+  /**
+   * Writes the line of each configured window to its geometry field, for the fields the event's GeoEvent Definition
+   * has. All windows are cut from the same history. The caller must hold the track's monitor.
+   */
+  void setWindowGeometries(TimeTreeMap timetreeMap, GeoEvent geoEvent)
+  {
+    final String[] fields = windowFields;
+    final long[] millis = windowMillis;
+    if (fields.length == 0)
+      return;
+    GeoEventDefinition geoEventDefinition = geoEvent.getGeoEventDefinition();
+    for (int i = 0; i < fields.length; i++)
+    {
+      if (geoEventDefinition.getIndexOf(fields[i]) < 0)
+        continue;
+      MapGeometry geometry = timetreeMap.getGeometryByTime(millis[i]);
+      recordOutput(geometry);
+      try
+      {
+        geoEvent.setField(fields[i], geometry);
+      }
+      catch (FieldException e)
+      {
+        LOGGER.debug("Failed to set the window geometry field " + fields[i] + ".", e);
+      }
+    }
+  }
+
+  /**
+   * Writes how the line of the last createGeometry() applies to the track's previous line, for the delta fields the
+   * event's GeoEvent Definition has. The caller must hold the track's monitor.
+   */
+  void setDeltaFields(TimeTreeMap timetreeMap, GeoEvent geoEvent)
+  {
+    TimetreeDelta delta = timetreeMap.getDelta();
+    if (delta == null)
+      return;
+    setField(geoEvent, DELTA_SEQUENCE_FIELD, delta.getSequence());
+    setField(geoEvent, DELTA_KEYFRAME_FIELD, delta.isKeyframe());
+    setField(geoEvent, DELTA_HEAD_FIELD, delta.getRemovedHead());
+    setField(geoEvent, DELTA_TAIL_FIELD, delta.getRemovedTail());
+  }
+
+  /**
+   * Writes the statistics of the track's history, for the statistics fields the event's GeoEvent Definition has. Speed
+   * is in units of the spatial reference per second. The caller must hold the track's monitor.
+   */
+  void setStatisticsFields(TimeTreeMap timetreeMap, GeoEvent geoEvent)
+  {
+    TimetreeStats stats = timetreeMap.getStats();
+    if (stats == null)
+      return;
+    double length = stats.getLength();
+    long duration = stats.getDuration(timetreeMap);
+    setField(geoEvent, LENGTH_FIELD, length);
+    setField(geoEvent, DURATION_FIELD, duration);
+    setField(geoEvent, SPEED_FIELD, (duration > 0) ? length * 1000 / duration : 0.0);
+    setField(geoEvent, HEADING_FIELD, stats.getHeading(timetreeMap));
+    setField(geoEvent, XMIN_FIELD, stats.getXMin());
+    setField(geoEvent, YMIN_FIELD, stats.getYMin());
+    setField(geoEvent, XMAX_FIELD, stats.getXMax());
+    setField(geoEvent, YMAX_FIELD, stats.getYMax());
+  }
+
+  private static void setField(GeoEvent geoEvent, String field, Object value)
+  {
+    if (geoEvent.getGeoEventDefinition().getIndexOf(field) < 0)
+      return;
+    try
+    {
+      geoEvent.setField(field, value);
+    }
+    catch (FieldException e)
+    {
+      LOGGER.debug("Failed to set the field " + field + ".", e);
+    }
+  }
+
+  private TimeTreeMap createTimeTreeMap(TimetreeKey trackKey)
+  {
+    TimeTreeMap timetreeMap = trackSettings.create(trackKey, clock(), slabAllocator, metrics);
+    if (deltaOutput)
+      timetreeMap.setDeltaOutput(keyframeInterval);
+    if (checkpoint != null)
+      checkpoint.load(timetreeMap);
+    return timetreeMap;
+  }
+
+  /**
+   * The clock time windows are measured against.
+   */
+  private LongSupplier clock()
+  {
+    return eventClock ? watermark : SYSTEM_CLOCK;
+  }
+
+  /**
+   * Brings a track restored by the checkpoint's background pass in line with the window. The caller holds the track's
+   * monitor.
+   */
+  private void restoreTimeTreeMap(TimeTreeMap timetreeMap)
+  {
+    timetreeMap.expire(clock().getAsLong());
+    if (timetreeMap.isEmpty())
+    {
+      geoEventTimeKeySet.remove(timetreeMap.getTrackKey(), timetreeMap);
+    }
+    else
+    {
+      geoEventTimeKeySet.account(timetreeMap);
+      if (expiryWheel != null)
+        expiryWheel.schedule(timetreeMap);
+    }
+  }
+
+  private void startCheckpoint()
+  {
+    if (checkpoint != null)
+      checkpoint.stop();
+    checkpoint = null;
+    if (!checkpointFolder.isEmpty() && getId() != null)
+    {
+      File folder = new File(checkpointFolder);
+      if (!folder.isDirectory() && !folder.mkdirs())
+      {
+        LOGGER.warn("Failed to create checkpoint folder {0}.", folder);
+        return;
+      }
+      checkpoint = new TimetreeCheckpoint(geoEventTimeKeySet, folder, getId(), TimeUnit.SECONDS.toMillis(Math.max(1, checkpointPeriod)), this::restoreTimeTreeMap);
+      checkpoint.start();
+    }
+  }
+
   @Override
   public void afterPropertiesSet()
   {
@@ -112,7 +554,7 @@ public class TimetreeProcessor extends GeoEventProcessorBase implements GeoEvent
     {
       isDelayCount = Boolean.parseBoolean(this.properties.get(IS_DELAY_COUNT).getValueAsString());
 
-      delayCount = Short.parseShort(this.properties.get(DELAY_VALUE).getValueAsString());
+      delayCount = Integer.parseInt(this.properties.get(DELAY_VALUE).getValueAsString());
 
       delayValue = Long.parseLong(this.properties.get(DELAY_VALUE).getValueAsString());
 
@@ -120,6 +562,66 @@ public class TimetreeProcessor extends GeoEventProcessorBase implements GeoEvent
 
       delayField = this.properties.get(DELAY_FIELD).getValueAsString();
 
+      eventClock = !isDelayCount && CLOCK_EVENT.equals(this.properties.get(WINDOW_CLOCK).getValueAsString());
+
+      allowedLateness = Long.parseLong(this.properties.get(ALLOWED_LATENESS).getValueAsString());
+
+      dedupeTolerance = Double.parseDouble(this.properties.get(DEDUPE_TOLERANCE).getValueAsString());
+
+      lineTolerance = Double.parseDouble(this.properties.get(LINE_TOLERANCE).getValueAsString());
+
+      long[][] tiers = parseTiers(this.properties.get(DOWNSAMPLE_TIERS).getValueAsString());
+      tierAges = (tiers != null) ? tiers[0] : null;
+      tierIntervals = (tiers != null) ? tiers[1] : null;
+
+      // windows are durations, a count window's history has no time bound to cut them from
+      String[][] windows = isDelayCount ? new String[0][] : parsePairs(this.properties.get(WINDOW_FIELDS).getValueAsString());
+      String[] fields = new String[windows.length];
+      long[] millis = new long[windows.length];
+      for (int i = 0; i < windows.length; i++)
+      {
+        fields[i] = windows[i][0];
+        millis[i] = parseDuration(windows[i][1]);
+      }
+      windowFields = fields;
+      windowMillis = millis;
+
+      trackStatistics = Boolean.parseBoolean(this.properties.get(TRACK_STATISTICS).getValueAsString());
+
+      maxTracks = Integer.parseInt(this.properties.get(MAX_TRACKS).getValueAsString());
+
+      memoryLimit = Long.parseLong(this.properties.get(MEMORY_LIMIT).getValueAsString()) * 1024 * 1024;
+
+      offHeapStorage = Boolean.parseBoolean(this.properties.get(OFF_HEAP_STORAGE).getValueAsString());
+
+      vertexPrecision = Double.parseDouble(this.properties.get(VERTEX_PRECISION).getValueAsString());
+
+      coalesceOutput = Boolean.parseBoolean(this.properties.get(COALESCE_OUTPUT).getValueAsString());
+
+      emitInterval = Long.parseLong(this.properties.get(EMIT_INTERVAL).getValueAsString());
+
+      emitUpdates = Integer.parseInt(this.properties.get(EMIT_UPDATES).getValueAsString());
+
+      deltaOutput = Boolean.parseBoolean(this.properties.get(DELTA_OUTPUT).getValueAsString());
+
+      keyframeInterval = Integer.parseInt(this.properties.get(KEYFRAME_INTERVAL).getValueAsString());
+
+      snapshotInterval = Long.parseLong(this.properties.get(SNAPSHOT_INTERVAL).getValueAsString());
+
+      String folder = this.properties.get(CHECKPOINT_FOLDER).getValueAsString();
+      checkpointFolder = (folder != null) ? folder.trim() : "";
+
+      checkpointPeriod = Long.parseLong(this.properties.get(CHECKPOINT_PERIOD).getValueAsString());
+
+      String storeName = this.properties.get(SHARED_STORE).getValueAsString();
+      sharedStoreName = (storeName != null) ? storeName.trim() : "";
+
+      partitions = Integer.parseInt(this.properties.get(PARTITIONS).getValueAsString());
+
+      queueCapacity = Integer.parseInt(this.properties.get(QUEUE_CAPACITY).getValueAsString());
+
+      dropOnFull = OVERFLOW_DROP.equals(this.properties.get(OVERFLOW_POLICY).getValueAsString());
+
       if (LOGGER.isTraceEnabled())
       {
         if (isDelayCount)
@@ -133,6 +635,156 @@ public class TimetreeProcessor extends GeoEventProcessorBase implements GeoEvent
       LOGGER.error("Failed to get processor properties.", ex);
     }
     delayMilliseconds = delayValueUnit.toMillis(delayValue);
+    if (!sharedStoreName.isEmpty() && (coalesceOutput || deltaOutput || !checkpointFolder.isEmpty()))
+    {
+      // the state they keep per track can't be shared with the other processors of the store
+      LOGGER.warn("Coalesced output, line changes and checkpoints are not supported with the shared cache {0}, they are turned off.", sharedStoreName);
+      coalesceOutput = false;
+      deltaOutput = false;
+      checkpointFolder = "";
+    }
+    if (!sharedStoreName.isEmpty() && trackStatistics)
+    {
+      // the histories hold the longest window of the store, the statistics would not describe this processor's line
+      LOGGER.warn("Track statistics are not supported with the shared cache {0}, they are turned off.", sharedStoreName);
+      trackStatistics = false;
+    }
+    long window = isDelayCount ? delayCount : delayMilliseconds;
+    trackSettings = new TimetreeTrackSettings(isDelayCount, window, delayField, eventClock, allowedLateness, dedupeTolerance, lineTolerance, tierAges, tierIntervals, offHeapStorage, vertexPrecision, trackStatistics, snapshotInterval > 0, maxTracks, memoryLimit);
+    ownTracks.setMaxEntries(Math.max(1, maxTracks));
+    ownTracks.setMemoryLimit(memoryLimit);
+    watermark.setAllowedLateness(Math.max(0, allowedLateness));
+    // tracks created before off-heap storage was turned off keep their blocks until they are dropped
+    if (offHeapStorage && slabAllocator == null)
+    {
+      slabAllocator = new TimetreeSlabAllocator();
+      metrics.setSlabAllocator(slabAllocator);
+    }
+
+    if (sharedStore == null && expiryWheel != null)
+      expiryWheel.stop();
+    expiryWheel = null;
+    attachStore();
+    if (sharedStore == null && !isDelayCount)
+    {
+      TimetreeExpiryWheel newExpiryWheel = new TimetreeExpiryWheel(ownTracks, delayMilliseconds, clock());
+      newExpiryWheel.start();
+      expiryWheel = newExpiryWheel;
+    }
+
+    if (emitter != null)
+      emitter.stop();
+    emitter = null;
+    if (coalesceOutput)
+    {
+      emitter = new TimetreeEmitter(this, metrics, Math.max(1, emitInterval), emitUpdates);
+      emitter.start();
+    }
+
+    if (snapshotPublisher != null)
+      snapshotPublisher.stop();
+    snapshotPublisher = null;
+    if (snapshotInterval > 0 && messaging != null)
+    {
+      snapshotPublisher = new TimetreeSnapshotPublisher(this, geoEventTimeKeySet, metrics, messaging.createGeoEventCreator(), window, !isDelayCount, TimeUnit.SECONDS.toMillis(snapshotInterval));
+      snapshotPublisher.start();
+    }
+    startCheckpoint();
+    startPipeline();
+  }
+
+  /**
+   * Attaches the processor to the shared store it is configured with. The store it is already attached to is kept, with
+   * its histories, as long as the track settings still match; otherwise the processor leaves it, and a store it was the
+   * only one using is created again with the new settings. Without a store, or when the store's track settings differ
+   * from the processor's, the processor uses its own tracks.
+   */
+  private void attachStore()
+  {
+    TimetreeStore newStore = null;
+    if (!sharedStoreName.isEmpty() && processorService != null)
+    {
+      newStore = processorService.attachStore(sharedStoreName, this, trackSettings);
+      if (newStore == null && sharedStore != null && sharedStore.getName().equals(sharedStoreName))
+      {
+        detachStore();
+        newStore = processorService.attachStore(sharedStoreName, this, trackSettings);
+      }
+      if (newStore == null)
+        LOGGER.warn("The shared cache {0} holds tracks with different settings than the processor's, the processor uses a cache of its own.", sharedStoreName);
+    }
+    if (newStore != sharedStore)
+      detachStore();
+    sharedStore = newStore;
+    if (sharedStore != null)
+    {
+      ownTracks.clear();
+      geoEventTimeKeySet = sharedStore.getRegistry();
+      eventWatermark = sharedStore.getWatermark();
+      expiryWheel = sharedStore.getExpiryWheel();
+    }
+    else
+    {
+      geoEventTimeKeySet = ownTracks;
+      eventWatermark = watermark;
+    }
+    metrics.setRegistry(geoEventTimeKeySet);
+  }
+
+  private void detachStore()
+  {
+    TimetreeStore oldStore = sharedStore;
+    sharedStore = null;
+    if (oldStore != null)
+    {
+      geoEventTimeKeySet = ownTracks;
+      eventWatermark = watermark;
+      metrics.setRegistry(ownTracks);
+      processorService.detachStore(oldStore, this);
+    }
+  }
+
+  private void startPipeline()
+  {
+    stopPipeline();
+    if (partitions > 0)
+    {
+      TimetreePipeline newPipeline = new TimetreePipeline(this, metrics, partitions, Math.max(1, queueCapacity), dropOnFull);
+      newPipeline.start();
+      pipeline = newPipeline;
+      metrics.setPipeline(newPipeline);
+    }
+  }
+
+  /**
+   * Processes and sends the events still queued on the partitions. Events arriving afterwards are processed on the
+   * calling thread.
+   */
+  private void stopPipeline()
+  {
+    TimetreePipeline oldPipeline = pipeline;
+    pipeline = null;
+    metrics.setPipeline(null);
+    if (oldPipeline != null)
+      oldPipeline.stop();
+  }
+
+  @Override
+  public void shutdown()
+  {
+    stopPipeline();
+    if (sharedStore == null && expiryWheel != null)
+      expiryWheel.stop();
+    expiryWheel = null;
+    detachStore();
+    if (emitter != null)
+      emitter.stop();
+    if (snapshotPublisher != null)
+      snapshotPublisher.stop();
+    if (checkpoint != null)
+      checkpoint.stop();
+    unregisterMetrics();
+    super.shutdown();
   }
 
   @Override
@@ -143,8 +795,19 @@ public class TimetreeProcessor extends GeoEventProcessorBase implements GeoEvent
 
     if (clearCache)
     {
-      geoEventTimeKeySet.clear();
-      LOGGER.debug("Clear cache requested, cleared key caches.");
+      // the tracks of a shared store are only cleared by the last processor still using them
+      final TimetreeStore sharedStore = this.sharedStore;
+      if (sharedStore != null && !sharedStore.isAttachedAlone(this))
+      {
+        LOGGER.debug("Clear cache requested, the shared cache {0} is still used by other processors and is kept.", sharedStoreName);
+      }
+      else
+      {
+        if (checkpoint != null)
+          checkpoint.discard();
+        geoEventTimeKeySet.clear();
+        LOGGER.debug("Clear cache requested, cleared key caches.");
+      }
     }
     getProperty(CLEAR_CACHE).setValue(false);
 
@@ -153,9 +816,91 @@ public class TimetreeProcessor extends GeoEventProcessorBase implements GeoEvent
 
     LOGGER.trace("Clear Cache: {0}", clearCache);
 
+    try
+    {
+      parseTiers(this.properties.get(DOWNSAMPLE_TIERS).getValueAsString());
+      if (!Boolean.parseBoolean(this.properties.get(IS_DELAY_COUNT).getValueAsString()))
+      {
+        for (String[] window : parsePairs(this.properties.get(WINDOW_FIELDS).getValueAsString()))
+          parseDuration(window[1]);
+      }
+    }
+    catch (IllegalArgumentException e)
+    {
+      throw new ValidationException(e.getMessage());
+    }
+
     super.validate();
   }
 
+  /**
+   * Parses the downsampling tiers into their ages and intervals, or returns null when there are none.
+   */
+  private static long[][] parseTiers(String value)
+  {
+    String[][] pairs = parsePairs(value);
+    if (pairs.length == 0)
+      return null;
+    long[] ages = new long[pairs.length];
+    long[] intervals = new long[pairs.length];
+    for (int i = 0; i < pairs.length; i++)
+    {
+      ages[i] = parseDuration(pairs[i][0]);
+      intervals[i] = parseDuration(pairs[i][1]);
+      if (intervals[i] <= 0 || (i > 0 && (ages[i] <= ages[i - 1] || intervals[i] < intervals[i - 1])))
+        throw new IllegalArgumentException("Downsampling tier ages and intervals must be ascending: " + value);
+    }
+    return new long[][] { ages, intervals };
+  }
+
+  /**
+   * Splits comma separated <name>=<value> pairs.
+   */
+  private static String[][] parsePairs(String value)
+  {
+    if (value == null || value.trim().isEmpty())
+      return new String[0][];
+    String[] entries = value.split(",");
+    String[][] pairs = new String[entries.length][];
+    for (int i = 0; i < entries.length; i++)
+    {
+      String[] pair = entries[i].split("=");
+      if (pair.length != 2 || pair[0].trim().isEmpty())
+        throw new IllegalArgumentException("Expected <name>=<value>: " + entries[i].trim());
+      pairs[i] = new String[] { pair[0].trim(), pair[1].trim() };
+    }
+    return pairs;
+  }
+
+  /**
+   * Parses a duration such as 500ms, 30s, 5m, 1h or 2d into milliseconds.
+   */
+  private static long parseDuration(String value)
+  {
+    String text = value.trim().toLowerCase();
+    int split = 0;
+    while (split < text.length() && Character.isDigit(text.charAt(split)))
+      split++;
+    if (split == 0)
+      throw new IllegalArgumentException("Invalid duration: " + value);
+    long amount = Long.parseLong(text.substring(0, split));
+    switch (text.substring(split).trim())
+    {
+      case "ms":
+        return amount;
+      case "s":
+        return TimeUnit.SECONDS.toMillis(amount);
+      case "m":
+        return TimeUnit.MINUTES.toMillis(amount);
+      case "h":
+        return TimeUnit.HOURS.toMillis(amount);
+      case "d":
+        return TimeUnit.DAYS.toMillis(amount);
+      default:
+        throw new IllegalArgumentException("Invalid duration unit: " + value);
+    }
+  }
+
   @Override
   public void send(GeoEvent geoEvent) throws MessagingException
   {
@@ -165,20 +910,31 @@ public class TimetreeProcessor extends GeoEventProcessorBase implements GeoEvent
       geoEvent.setProperty(GeoEventPropertyName.OWNER_ID, getId());
       geoEvent.setProperty(GeoEventPropertyName.OWNER_URI, definition.getUri());
       geoEventProducer.send(geoEvent);
-      LOGGER.debug("Sent GeoEvent to consumers: {0}", geoEvent);
+      if (LOGGER.isDebugEnabled())
+        LOGGER.debug("Sent GeoEvent to consumers: {0}", geoEvent);
     }
   }
 
   public void setMessaging(Messaging messaging)
   {
     this.messaging = messaging;
-    this.geoEventCreator = messaging.createGeoEventCreator();
+  }
+
+  void setProcessorService(TimetreeProcessorService processorService)
+  {
+    this.processorService = processorService;
   }
 
   @Override
   public String getStatusDetails()
   {
-    return (geoEventProducer != null) ? geoEventProducer.getStatusDetails() : "";
+    String details = (geoEventProducer != null) ? geoEventProducer.getStatusDetails() : "";
+    return (details == null || details.isEmpty()) ? metrics.toString() : details + " " + metrics.toString();
+  }
+
+  public TimetreeMetrics getMetrics()
+  {
+    return metrics;
   }
 
   @Override
@@ -202,6 +958,7 @@ public class TimetreeProcessor extends GeoEventProcessorBase implements GeoEvent
   @Override
   public void disconnect()
   {
+    stopPipeline();
     if (geoEventProducer != null)
       geoEventProducer.disconnect();
   }
@@ -235,5 +992,42 @@ public class TimetreeProcessor extends GeoEventProcessorBase implements GeoEvent
   {
     super.setId(id);
     geoEventProducer = messaging.createGeoEventProducer(new EventDestination(id + ":event"));
+    registerMetrics(id);
+    startCheckpoint();
+  }
+
+  private void registerMetrics(String id)
+  {
+    unregisterMetrics();
+    try
+    {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("com.esri.geoevent.processor.timetree:type=TimetreeProcessor,id=" + ObjectName.quote(id));
+      if (!server.isRegistered(name))
+      {
+        server.registerMBean(metrics, name);
+        metricsName = name;
+      }
+    }
+    catch (Exception ex)
+    {
+      LOGGER.warn("Failed to register processor metrics with JMX.", ex);
+    }
+  }
+
+  private void unregisterMetrics()
+  {
+    if (metricsName != null)
+    {
+      try
+      {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+      }
+      catch (Exception ex)
+      {
+        LOGGER.debug("Failed to unregister processor metrics from JMX.", ex);
+      }
+      metricsName = null;
+    }
   }
 }
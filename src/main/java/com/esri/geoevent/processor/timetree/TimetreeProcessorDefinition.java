@@ -31,6 +31,14 @@ public class TimetreeProcessorDefinition extends GeoEventProcessorDefinitionBase
       allowedTimeFields.add(new LabeledValue(TIME_END, TIME_END));
       allowedTimeFields.add(new LabeledValue(RECEIVED_TIME, RECEIVED_TIME));
 
+      final List<LabeledValue> allowedClocks = new ArrayList<>();
+      allowedClocks.add(new LabeledValue(CLOCK_SYSTEM, CLOCK_SYSTEM));
+      allowedClocks.add(new LabeledValue(CLOCK_EVENT, CLOCK_EVENT));
+
+      final List<LabeledValue> allowedOverflowPolicies = new ArrayList<>();
+      allowedOverflowPolicies.add(new LabeledValue(OVERFLOW_BLOCK, OVERFLOW_BLOCK));
+      allowedOverflowPolicies.add(new LabeledValue(OVERFLOW_DROP, OVERFLOW_DROP));
+
       propertyDefinitions.put(IS_DELAY_COUNT, new PropertyDefinition(IS_DELAY_COUNT, PropertyType.Boolean, true, IS_DELAY_COUNT_LABEL, IS_DELAY_COUNT_DESC, true, false));
 
       propertyDefinitions.put(DELAY_VALUE, new PropertyDefinition(DELAY_VALUE, PropertyType.Long, "5", DELAY_VALUE_LABEL, DELAY_VALUE_DESC, true, false));
@@ -39,6 +47,52 @@ public class TimetreeProcessorDefinition extends GeoEventProcessorDefinitionBase
 
       propertyDefinitions.put(DELAY_FIELD, new PropertyDefinition(DELAY_FIELD, PropertyType.String, TIME_START, DELAY_FIELD_LABEL, DELAY_FIELD_DESC, IS_DELAY_COUNT + "=false", true, false, allowedTimeFields));
 
+      propertyDefinitions.put(WINDOW_CLOCK, new PropertyDefinition(WINDOW_CLOCK, PropertyType.String, CLOCK_SYSTEM, WINDOW_CLOCK_LABEL, WINDOW_CLOCK_DESC, IS_DELAY_COUNT + "=false", false, false, allowedClocks));
+
+      propertyDefinitions.put(ALLOWED_LATENESS, new PropertyDefinition(ALLOWED_LATENESS, PropertyType.Long, "0", ALLOWED_LATENESS_LABEL, ALLOWED_LATENESS_DESC, WINDOW_CLOCK + "=" + CLOCK_EVENT, false, false));
+
+      propertyDefinitions.put(DEDUPE_TOLERANCE, new PropertyDefinition(DEDUPE_TOLERANCE, PropertyType.Double, "0", DEDUPE_TOLERANCE_LABEL, DEDUPE_TOLERANCE_DESC, false, false));
+
+      propertyDefinitions.put(LINE_TOLERANCE, new PropertyDefinition(LINE_TOLERANCE, PropertyType.Double, "0", LINE_TOLERANCE_LABEL, LINE_TOLERANCE_DESC, false, false));
+
+      propertyDefinitions.put(DOWNSAMPLE_TIERS, new PropertyDefinition(DOWNSAMPLE_TIERS, PropertyType.String, "", DOWNSAMPLE_TIERS_LABEL, DOWNSAMPLE_TIERS_DESC, IS_DELAY_COUNT + "=false", false, false));
+
+      propertyDefinitions.put(WINDOW_FIELDS, new PropertyDefinition(WINDOW_FIELDS, PropertyType.String, "", WINDOW_FIELDS_LABEL, WINDOW_FIELDS_DESC, IS_DELAY_COUNT + "=false", false, false));
+
+      propertyDefinitions.put(TRACK_STATISTICS, new PropertyDefinition(TRACK_STATISTICS, PropertyType.Boolean, false, TRACK_STATISTICS_LABEL, TRACK_STATISTICS_DESC, false, false));
+
+      propertyDefinitions.put(MAX_TRACKS, new PropertyDefinition(MAX_TRACKS, PropertyType.Integer, "20000", MAX_TRACKS_LABEL, MAX_TRACKS_DESC, false, false));
+
+      propertyDefinitions.put(MEMORY_LIMIT, new PropertyDefinition(MEMORY_LIMIT, PropertyType.Long, "0", MEMORY_LIMIT_LABEL, MEMORY_LIMIT_DESC, false, false));
+
+      propertyDefinitions.put(OFF_HEAP_STORAGE, new PropertyDefinition(OFF_HEAP_STORAGE, PropertyType.Boolean, false, OFF_HEAP_STORAGE_LABEL, OFF_HEAP_STORAGE_DESC, false, false));
+
+      propertyDefinitions.put(VERTEX_PRECISION, new PropertyDefinition(VERTEX_PRECISION, PropertyType.Double, "0", VERTEX_PRECISION_LABEL, VERTEX_PRECISION_DESC, false, false));
+
+      propertyDefinitions.put(COALESCE_OUTPUT, new PropertyDefinition(COALESCE_OUTPUT, PropertyType.Boolean, false, COALESCE_OUTPUT_LABEL, COALESCE_OUTPUT_DESC, false, false));
+
+      propertyDefinitions.put(EMIT_INTERVAL, new PropertyDefinition(EMIT_INTERVAL, PropertyType.Long, "1000", EMIT_INTERVAL_LABEL, EMIT_INTERVAL_DESC, COALESCE_OUTPUT + "=true", false, false));
+
+      propertyDefinitions.put(EMIT_UPDATES, new PropertyDefinition(EMIT_UPDATES, PropertyType.Integer, "0", EMIT_UPDATES_LABEL, EMIT_UPDATES_DESC, COALESCE_OUTPUT + "=true", false, false));
+
+      propertyDefinitions.put(DELTA_OUTPUT, new PropertyDefinition(DELTA_OUTPUT, PropertyType.Boolean, false, DELTA_OUTPUT_LABEL, DELTA_OUTPUT_DESC, false, false));
+
+      propertyDefinitions.put(KEYFRAME_INTERVAL, new PropertyDefinition(KEYFRAME_INTERVAL, PropertyType.Integer, "100", KEYFRAME_INTERVAL_LABEL, KEYFRAME_INTERVAL_DESC, DELTA_OUTPUT + "=true", false, false));
+
+      propertyDefinitions.put(SNAPSHOT_INTERVAL, new PropertyDefinition(SNAPSHOT_INTERVAL, PropertyType.Long, "0", SNAPSHOT_INTERVAL_LABEL, SNAPSHOT_INTERVAL_DESC, false, false));
+
+      propertyDefinitions.put(CHECKPOINT_FOLDER, new PropertyDefinition(CHECKPOINT_FOLDER, PropertyType.String, "", CHECKPOINT_FOLDER_LABEL, CHECKPOINT_FOLDER_DESC, false, false));
+
+      propertyDefinitions.put(CHECKPOINT_PERIOD, new PropertyDefinition(CHECKPOINT_PERIOD, PropertyType.Long, "60", CHECKPOINT_PERIOD_LABEL, CHECKPOINT_PERIOD_DESC, false, false));
+
+      propertyDefinitions.put(SHARED_STORE, new PropertyDefinition(SHARED_STORE, PropertyType.String, "", SHARED_STORE_LABEL, SHARED_STORE_DESC, false, false));
+
+      propertyDefinitions.put(PARTITIONS, new PropertyDefinition(PARTITIONS, PropertyType.Integer, "0", PARTITIONS_LABEL, PARTITIONS_DESC, false, false));
+
+      propertyDefinitions.put(QUEUE_CAPACITY, new PropertyDefinition(QUEUE_CAPACITY, PropertyType.Integer, "10000", QUEUE_CAPACITY_LABEL, QUEUE_CAPACITY_DESC, false, false));
+
+      propertyDefinitions.put(OVERFLOW_POLICY, new PropertyDefinition(OVERFLOW_POLICY, PropertyType.String, OVERFLOW_BLOCK, OVERFLOW_POLICY_LABEL, OVERFLOW_POLICY_DESC, false, false, allowedOverflowPolicies));
+
       propertyDefinitions.put(CLEAR_CACHE, new PropertyDefinition(CLEAR_CACHE, PropertyType.Boolean, false, CLEAR_CACHE_LABEL, CLEAR_CACHE_DESC, true, false));
     }
     catch (PropertyException e)
@@ -1,5 +1,8 @@
 package com.esri.geoevent.processor.timetree;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import com.esri.ges.core.component.ComponentException;
 import com.esri.ges.messaging.Messaging;
 import com.esri.ges.processor.GeoEventProcessor;
@@ -7,7 +10,8 @@ import com.esri.ges.processor.GeoEventProcessorServiceBase;
 
 public class TimetreeProcessorService extends GeoEventProcessorServiceBase
 {
-  private Messaging messaging;
+  private final Map<String, TimetreeStore> stores = new HashMap<>();
+  private Messaging                        messaging;
 
   public TimetreeProcessorService()
   {
@@ -19,9 +23,38 @@ public class TimetreeProcessorService extends GeoEventProcessorServiceBase
   {
     TimetreeProcessor processor = new TimetreeProcessor(definition);
     processor.setMessaging(messaging);
+    processor.setProcessorService(this);
     return processor;
   }
 
+  /**
+   * Attaches the processor to the shared store of the given name, created with the processor's track settings if no
+   * other processor is attached to it. Returns null when the store's track settings differ from the processor's by more
+   * than the length of the window.
+   */
+  synchronized TimetreeStore attachStore(String name, TimetreeProcessor processor, TimetreeTrackSettings settings)
+  {
+    TimetreeStore store = stores.get(name);
+    if (store == null)
+    {
+      store = new TimetreeStore(name, settings);
+      stores.put(name, store);
+    }
+    return store.attach(processor, settings) ? store : null;
+  }
+
+  /**
+   * Detaches the processor from the store and drops the store once no processor is attached anymore.
+   */
+  synchronized void detachStore(TimetreeStore store, TimetreeProcessor processor)
+  {
+    if (store.detach(processor) == 0 && stores.get(store.getName()) == store)
+    {
+      stores.remove(store.getName());
+      store.close();
+    }
+  }
+
   public void setMessaging(Messaging messaging)
   {
     this.messaging = messaging;
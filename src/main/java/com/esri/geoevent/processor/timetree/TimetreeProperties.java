@@ -13,6 +13,28 @@ public interface TimetreeProperties
   static final String        TIME_END                = "TIME_END";
   static final String        RECEIVED_TIME           = "RECEIVED_TIME";
 
+  static final String        CLOCK_SYSTEM            = "SYSTEM";
+  static final String        CLOCK_EVENT             = "EVENT";
+
+  static final String        OVERFLOW_BLOCK          = "BLOCK";
+  static final String        OVERFLOW_DROP           = "DROP";
+
+  // fields of the output event describing a delta line
+  static final String        DELTA_SEQUENCE_FIELD    = "deltaSequence";
+  static final String        DELTA_KEYFRAME_FIELD    = "deltaKeyframe";
+  static final String        DELTA_HEAD_FIELD        = "deltaRemovedHead";
+  static final String        DELTA_TAIL_FIELD        = "deltaRemovedTail";
+
+  // fields of the output event holding the statistics of the track's history
+  static final String        LENGTH_FIELD            = "trackLength";
+  static final String        DURATION_FIELD          = "trackDuration";
+  static final String        SPEED_FIELD             = "trackSpeed";
+  static final String        HEADING_FIELD           = "trackHeading";
+  static final String        XMIN_FIELD              = "trackXMin";
+  static final String        YMIN_FIELD              = "trackYMin";
+  static final String        XMAX_FIELD              = "trackXMax";
+  static final String        YMAX_FIELD              = "trackYMax";
+
   static final String        IS_DELAY_COUNT          = "isDelayCount";
   static final String        IS_DELAY_COUNT_LABEL    = "${" + STRINGS_PATH + ".IS_DELAY_COUNT_LABEL}";
   static final String        IS_DELAY_COUNT_DESC     = "${" + STRINGS_PATH + ".IS_DELAY_COUNT_DESC}";
@@ -29,6 +51,98 @@ public interface TimetreeProperties
   static final String        DELAY_FIELD_LABEL       = "${" + STRINGS_PATH + ".DELAY_FIELD_LABEL}";
   static final String        DELAY_FIELD_DESC        = "${" + STRINGS_PATH + ".DELAY_FIELD_DESC}";
 
+  static final String        WINDOW_CLOCK            = "windowClock";
+  static final String        WINDOW_CLOCK_LABEL      = "${" + STRINGS_PATH + ".WINDOW_CLOCK_LABEL}";
+  static final String        WINDOW_CLOCK_DESC       = "${" + STRINGS_PATH + ".WINDOW_CLOCK_DESC}";
+
+  static final String        ALLOWED_LATENESS        = "allowedLateness";
+  static final String        ALLOWED_LATENESS_LABEL  = "${" + STRINGS_PATH + ".ALLOWED_LATENESS_LABEL}";
+  static final String        ALLOWED_LATENESS_DESC   = "${" + STRINGS_PATH + ".ALLOWED_LATENESS_DESC}";
+
+  static final String        DEDUPE_TOLERANCE        = "dedupeTolerance";
+  static final String        DEDUPE_TOLERANCE_LABEL  = "${" + STRINGS_PATH + ".DEDUPE_TOLERANCE_LABEL}";
+  static final String        DEDUPE_TOLERANCE_DESC   = "${" + STRINGS_PATH + ".DEDUPE_TOLERANCE_DESC}";
+
+  static final String        LINE_TOLERANCE          = "lineTolerance";
+  static final String        LINE_TOLERANCE_LABEL    = "${" + STRINGS_PATH + ".LINE_TOLERANCE_LABEL}";
+  static final String        LINE_TOLERANCE_DESC     = "${" + STRINGS_PATH + ".LINE_TOLERANCE_DESC}";
+
+  static final String        DOWNSAMPLE_TIERS        = "downsampleTiers";
+  static final String        DOWNSAMPLE_TIERS_LABEL  = "${" + STRINGS_PATH + ".DOWNSAMPLE_TIERS_LABEL}";
+  static final String        DOWNSAMPLE_TIERS_DESC   = "${" + STRINGS_PATH + ".DOWNSAMPLE_TIERS_DESC}";
+
+  static final String        WINDOW_FIELDS           = "windowFields";
+  static final String        WINDOW_FIELDS_LABEL     = "${" + STRINGS_PATH + ".WINDOW_FIELDS_LABEL}";
+  static final String        WINDOW_FIELDS_DESC      = "${" + STRINGS_PATH + ".WINDOW_FIELDS_DESC}";
+
+  static final String        TRACK_STATISTICS        = "trackStatistics";
+  static final String        TRACK_STATISTICS_LABEL  = "${" + STRINGS_PATH + ".TRACK_STATISTICS_LABEL}";
+  static final String        TRACK_STATISTICS_DESC   = "${" + STRINGS_PATH + ".TRACK_STATISTICS_DESC}";
+
+  static final String        MAX_TRACKS              = "maxTracks";
+  static final String        MAX_TRACKS_LABEL        = "${" + STRINGS_PATH + ".MAX_TRACKS_LABEL}";
+  static final String        MAX_TRACKS_DESC         = "${" + STRINGS_PATH + ".MAX_TRACKS_DESC}";
+
+  static final String        MEMORY_LIMIT            = "memoryLimit";
+  static final String        MEMORY_LIMIT_LABEL      = "${" + STRINGS_PATH + ".MEMORY_LIMIT_LABEL}";
+  static final String        MEMORY_LIMIT_DESC       = "${" + STRINGS_PATH + ".MEMORY_LIMIT_DESC}";
+
+  static final String        OFF_HEAP_STORAGE        = "offHeapStorage";
+  static final String        OFF_HEAP_STORAGE_LABEL  = "${" + STRINGS_PATH + ".OFF_HEAP_STORAGE_LABEL}";
+  static final String        OFF_HEAP_STORAGE_DESC   = "${" + STRINGS_PATH + ".OFF_HEAP_STORAGE_DESC}";
+
+  static final String        VERTEX_PRECISION        = "vertexPrecision";
+  static final String        VERTEX_PRECISION_LABEL  = "${" + STRINGS_PATH + ".VERTEX_PRECISION_LABEL}";
+  static final String        VERTEX_PRECISION_DESC   = "${" + STRINGS_PATH + ".VERTEX_PRECISION_DESC}";
+
+  static final String        COALESCE_OUTPUT         = "coalesceOutput";
+  static final String        COALESCE_OUTPUT_LABEL   = "${" + STRINGS_PATH + ".COALESCE_OUTPUT_LABEL}";
+  static final String        COALESCE_OUTPUT_DESC    = "${" + STRINGS_PATH + ".COALESCE_OUTPUT_DESC}";
+
+  static final String        EMIT_INTERVAL           = "emitInterval";
+  static final String        EMIT_INTERVAL_LABEL     = "${" + STRINGS_PATH + ".EMIT_INTERVAL_LABEL}";
+  static final String        EMIT_INTERVAL_DESC      = "${" + STRINGS_PATH + ".EMIT_INTERVAL_DESC}";
+
+  static final String        EMIT_UPDATES            = "emitUpdates";
+  static final String        EMIT_UPDATES_LABEL      = "${" + STRINGS_PATH + ".EMIT_UPDATES_LABEL}";
+  static final String        EMIT_UPDATES_DESC       = "${" + STRINGS_PATH + ".EMIT_UPDATES_DESC}";
+
+  static final String        DELTA_OUTPUT            = "deltaOutput";
+  static final String        DELTA_OUTPUT_LABEL      = "${" + STRINGS_PATH + ".DELTA_OUTPUT_LABEL}";
+  static final String        DELTA_OUTPUT_DESC       = "${" + STRINGS_PATH + ".DELTA_OUTPUT_DESC}";
+
+  static final String        KEYFRAME_INTERVAL       = "keyframeInterval";
+  static final String        KEYFRAME_INTERVAL_LABEL = "${" + STRINGS_PATH + ".KEYFRAME_INTERVAL_LABEL}";
+  static final String        KEYFRAME_INTERVAL_DESC  = "${" + STRINGS_PATH + ".KEYFRAME_INTERVAL_DESC}";
+
+  static final String        SNAPSHOT_INTERVAL       = "snapshotInterval";
+  static final String        SNAPSHOT_INTERVAL_LABEL = "${" + STRINGS_PATH + ".SNAPSHOT_INTERVAL_LABEL}";
+  static final String        SNAPSHOT_INTERVAL_DESC  = "${" + STRINGS_PATH + ".SNAPSHOT_INTERVAL_DESC}";
+
+  static final String        CHECKPOINT_FOLDER       = "checkpointFolder";
+  static final String        CHECKPOINT_FOLDER_LABEL = "${" + STRINGS_PATH + ".CHECKPOINT_FOLDER_LABEL}";
+  static final String        CHECKPOINT_FOLDER_DESC  = "${" + STRINGS_PATH + ".CHECKPOINT_FOLDER_DESC}";
+
+  static final String        CHECKPOINT_PERIOD       = "checkpointPeriod";
+  static final String        CHECKPOINT_PERIOD_LABEL = "${" + STRINGS_PATH + ".CHECKPOINT_PERIOD_LABEL}";
+  static final String        CHECKPOINT_PERIOD_DESC  = "${" + STRINGS_PATH + ".CHECKPOINT_PERIOD_DESC}";
+
+  static final String        SHARED_STORE            = "sharedStore";
+  static final String        SHARED_STORE_LABEL      = "${" + STRINGS_PATH + ".SHARED_STORE_LABEL}";
+  static final String        SHARED_STORE_DESC       = "${" + STRINGS_PATH + ".SHARED_STORE_DESC}";
+
+  static final String        PARTITIONS              = "partitions";
+  static final String        PARTITIONS_LABEL        = "${" + STRINGS_PATH + ".PARTITIONS_LABEL}";
+  static final String        PARTITIONS_DESC         = "${" + STRINGS_PATH + ".PARTITIONS_DESC}";
+
+  static final String        QUEUE_CAPACITY          = "queueCapacity";
+  static final String        QUEUE_CAPACITY_LABEL    = "${" + STRINGS_PATH + ".QUEUE_CAPACITY_LABEL}";
+  static final String        QUEUE_CAPACITY_DESC     = "${" + STRINGS_PATH + ".QUEUE_CAPACITY_DESC}";
+
+  static final String        OVERFLOW_POLICY         = "overflowPolicy";
+  static final String        OVERFLOW_POLICY_LABEL   = "${" + STRINGS_PATH + ".OVERFLOW_POLICY_LABEL}";
+  static final String        OVERFLOW_POLICY_DESC    = "${" + STRINGS_PATH + ".OVERFLOW_POLICY_DESC}";
+
   static final String        CLEAR_CACHE             = "clearCache";
   static final String        CLEAR_CACHE_DESC        = "${" + STRINGS_PATH + ".CLEAR_CACHE_DESC}";
   static final String        CLEAR_CACHE_LABEL       = "${" + STRINGS_PATH + ".CLEAR_CACHE_LABEL}";
@@ -0,0 +1,402 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Registry of track histories keyed by track key. Tracks are spread over lock stripes so lookups for different tracks
+ * do not contend on a single monitor; each stripe holds its share of the maximum number of entries. Updates to a single
+ * track are serialized by synchronizing on its TimeTreeMap.
+ * <p>
+ * Stripes evict in the manner of W-TinyLFU. A new track enters a small window ordered by last update. The least
+ * recently updated track of a full window is only admitted to the main part of the stripe, also ordered by last
+ * update, when it was updated more often than the track it would evict from there, as told by a frequency sketch of
+ * the stripe's updates. A burst of tracks that report once is thus evicted from the window without flushing the tracks
+ * that report all the time.
+ * <p>
+ * The registry also keeps a running estimate of the bytes held by all tracks. When a memory limit is set, tracks are
+ * evicted until the estimate is back under the limit, picking the largest of the least recently updated tracks of a
+ * few stripes.
+ * <p>
+ * Tracks are released under their stripe's monitor, while another thread may still be updating them under the track's
+ * monitor. Their storage, on the heap or off-heap, is therefore only freed by reclaim(), which takes each released
+ * track's monitor first.
+ */
+public class TimetreeRegistry
+{
+  private static final int                         STRIPES          = 64;
+  private static final int                         EVICTION_SAMPLES = 4;
+
+  private final Stripe[]                           stripes          = new Stripe[STRIPES];
+  private final Function<TimetreeKey, TimeTreeMap> factory;
+  private final TimetreeMetrics                    metrics;
+  private volatile long                            memoryLimit      = 0;
+  private final AtomicLong                         estimatedBytes   = new AtomicLong();
+  private final LongAdder                          vertexCount      = new LongAdder();
+  private final AtomicInteger                      evictionCursor   = new AtomicInteger();
+  private final ConcurrentLinkedQueue<TimeTreeMap> released         = new ConcurrentLinkedQueue<>();
+
+  public TimetreeRegistry(int maxEntries, Function<TimetreeKey, TimeTreeMap> factory, TimetreeMetrics metrics)
+  {
+    this.factory = factory;
+    this.metrics = metrics;
+    for (int i = 0; i < STRIPES; i++)
+      stripes[i] = new Stripe();
+    setMaxEntries(maxEntries);
+  }
+
+  /**
+   * Changes the maximum number of tracks, evicting the tracks over a lower maximum right away.
+   */
+  public void setMaxEntries(int maxEntries)
+  {
+    int maxStripeEntries = Math.max(1, (maxEntries + STRIPES - 1) / STRIPES);
+    for (Stripe stripe : stripes)
+    {
+      synchronized (stripe)
+      {
+        stripe.setMaxEntries(maxStripeEntries);
+      }
+    }
+  }
+
+  /**
+   * Looks up the track of an update with the stripe's probe key; a key is only built when the track is created.
+   */
+  public TimeTreeMap getOrCreate(String definitionGuid, String trackId)
+  {
+    int hash = TimetreeKey.hash(definitionGuid, trackId);
+    Stripe stripe = stripeFor(hash);
+    synchronized (stripe)
+    {
+      stripe.sketch.increment(hash);
+      TimeTreeMap timetreeMap = stripe.get(stripe.probe.set(definitionGuid, trackId, hash));
+      if (timetreeMap == null)
+      {
+        metrics.trackMissed();
+        timetreeMap = create(stripe, new TimetreeKey(definitionGuid, trackId));
+      }
+      else
+      {
+        metrics.trackHit();
+      }
+      return timetreeMap;
+    }
+  }
+
+  public TimeTreeMap getOrCreate(TimetreeKey trackKey)
+  {
+    Stripe stripe = stripeFor(trackKey.hashCode());
+    synchronized (stripe)
+    {
+      TimeTreeMap timetreeMap = stripe.get(trackKey);
+      if (timetreeMap == null)
+        timetreeMap = create(stripe, trackKey);
+      return timetreeMap;
+    }
+  }
+
+  private TimeTreeMap create(Stripe stripe, TimetreeKey trackKey)
+  {
+    TimeTreeMap timetreeMap = factory.apply(trackKey);
+    stripe.put(trackKey, timetreeMap);
+    return timetreeMap;
+  }
+
+  public boolean remove(TimetreeKey trackKey, TimeTreeMap timetreeMap)
+  {
+    Stripe stripe = stripeFor(trackKey.hashCode());
+    synchronized (stripe)
+    {
+      if (stripe.remove(trackKey, timetreeMap))
+      {
+        release(timetreeMap);
+        return true;
+      }
+      return false;
+    }
+  }
+
+  public void clear()
+  {
+    for (Stripe stripe : stripes)
+    {
+      synchronized (stripe)
+      {
+        ArrayList<TimeTreeMap> tracks = new ArrayList<>();
+        stripe.values(tracks);
+        for (TimeTreeMap timetreeMap : tracks)
+          release(timetreeMap);
+        stripe.clear();
+      }
+    }
+    reclaim();
+  }
+
+  public TimetreeMetrics getMetrics()
+  {
+    return metrics;
+  }
+
+  public int size()
+  {
+    int size = 0;
+    for (Stripe stripe : stripes)
+    {
+      synchronized (stripe)
+      {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * The vertices held by all tracks, kept up to date by account() and release() rather than counted, so reading it
+   * neither walks the tracks nor holds up lookups.
+   */
+  public long getVertexCount()
+  {
+    return vertexCount.sum();
+  }
+
+  /**
+   * Visits every track. The tracks of a stripe are copied out before they are visited, so the visitor may lock them
+   * without holding the stripe's monitor.
+   */
+  public void forEach(Consumer<TimeTreeMap> visitor)
+  {
+    ArrayList<TimeTreeMap> tracks = new ArrayList<>();
+    for (Stripe stripe : stripes)
+    {
+      synchronized (stripe)
+      {
+        stripe.values(tracks);
+      }
+      tracks.forEach(visitor);
+      tracks.clear();
+    }
+  }
+
+  /**
+   * Brings the estimated size and the vertex count of a track up to date after it changed. The caller must hold the
+   * track's monitor.
+   */
+  public void account(TimeTreeMap timetreeMap)
+  {
+    if (!timetreeMap.isRetired())
+    {
+      long delta = timetreeMap.account(timetreeMap.estimateBytes());
+      if (delta != 0)
+        estimatedBytes.addAndGet(delta);
+      long vertexDelta = timetreeMap.accountPoints(timetreeMap.size());
+      if (vertexDelta != 0)
+        vertexCount.add(vertexDelta);
+    }
+  }
+
+  public long getEstimatedBytes()
+  {
+    return estimatedBytes.get();
+  }
+
+  public void setMemoryLimit(long memoryLimit)
+  {
+    this.memoryLimit = memoryLimit;
+  }
+
+  public boolean isOverMemoryLimit()
+  {
+    return memoryLimit > 0 && estimatedBytes.get() > memoryLimit;
+  }
+
+  /**
+   * Evicts tracks until the estimated size is under the memory limit. Each round samples the least recently updated
+   * track of a few stripes and evicts the largest of them. Must not be called while holding a track's monitor.
+   */
+  public void trimToMemoryLimit()
+  {
+    int emptySamples = 0;
+    while (isOverMemoryLimit() && emptySamples < STRIPES)
+    {
+      TimeTreeMap victim = null;
+      for (int i = 0; i < EVICTION_SAMPLES; i++)
+      {
+        Stripe stripe = stripes[evictionCursor.getAndIncrement() & (STRIPES - 1)];
+        TimeTreeMap eldest;
+        synchronized (stripe)
+        {
+          eldest = stripe.eldest();
+        }
+        if (eldest == null)
+          emptySamples++;
+        else if (victim == null || eldest.getAccountedBytes() > victim.getAccountedBytes())
+          victim = eldest;
+      }
+      if (victim != null)
+      {
+        emptySamples = 0;
+        if (remove(victim.getTrackKey(), victim))
+          metrics.trackEvictedByMemoryLimit();
+      }
+    }
+  }
+
+  private void release(TimeTreeMap timetreeMap)
+  {
+    timetreeMap.setRetired(true);
+    estimatedBytes.addAndGet(-timetreeMap.releaseAccountedBytes());
+    vertexCount.add(-timetreeMap.releaseAccountedPoints());
+    released.offer(timetreeMap);
+  }
+
+  public boolean hasReleased()
+  {
+    return !released.isEmpty();
+  }
+
+  /**
+   * Frees the storage of released tracks. Must not be called while holding a track's monitor.
+   */
+  public void reclaim()
+  {
+    TimeTreeMap timetreeMap;
+    while ((timetreeMap = released.poll()) != null)
+    {
+      synchronized (timetreeMap)
+      {
+        timetreeMap.releaseStore();
+      }
+    }
+  }
+
+  /**
+   * Picks the stripe from the upper bits of a multiplicative hash: track ids that are numbered sequentially have string
+   * hashes that differ in a few low bits only, which would pile them up on a few stripes and evict them while others
+   * have room.
+   */
+  private Stripe stripeFor(int hash)
+  {
+    return stripes[(hash * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(STRIPES - 1)];
+  }
+
+  private class Stripe
+  {
+    private final TimetreeKey                            probe  = new TimetreeKey();
+    private final TimetreeFrequencySketch                sketch = new TimetreeFrequencySketch();
+    // both in access order, new tracks start in the window
+    private final LinkedHashMap<TimetreeKey, TimeTreeMap> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<TimetreeKey, TimeTreeMap> main   = new LinkedHashMap<>(16, 0.75f, true);
+    private int                                           maxEntries;
+    private int                                           maxWindow;
+
+    void setMaxEntries(int maxEntries)
+    {
+      this.maxEntries = maxEntries;
+      maxWindow = Math.max(1, maxEntries / 100);
+      sketch.ensureCapacity(maxEntries);
+      evict();
+    }
+
+    TimeTreeMap get(TimetreeKey trackKey)
+    {
+      TimeTreeMap timetreeMap = main.get(trackKey);
+      return (timetreeMap != null) ? timetreeMap : window.get(trackKey);
+    }
+
+    void put(TimetreeKey trackKey, TimeTreeMap timetreeMap)
+    {
+      window.put(trackKey, timetreeMap);
+      evict();
+    }
+
+    boolean remove(TimetreeKey trackKey, TimeTreeMap timetreeMap)
+    {
+      return main.remove(trackKey, timetreeMap) || window.remove(trackKey, timetreeMap);
+    }
+
+    void clear()
+    {
+      window.clear();
+      main.clear();
+    }
+
+    int size()
+    {
+      return window.size() + main.size();
+    }
+
+    void values(Collection<TimeTreeMap> tracks)
+    {
+      tracks.addAll(window.values());
+      tracks.addAll(main.values());
+    }
+
+    /**
+     * The least recently updated track, or null when the stripe is empty.
+     */
+    TimeTreeMap eldest()
+    {
+      Map.Entry<TimetreeKey, TimeTreeMap> eldest = eldest(main);
+      if (eldest == null)
+        eldest = eldest(window);
+      return (eldest != null) ? eldest.getValue() : null;
+    }
+
+    /**
+     * Moves the tracks that fell out of the window to the main part while it has room, then has them compete with its
+     * least recently updated track for admission.
+     */
+    private void evict()
+    {
+      while (window.size() > maxWindow || size() > maxEntries)
+      {
+        if (window.size() > maxWindow)
+        {
+          Map.Entry<TimetreeKey, TimeTreeMap> candidate = eldest(window);
+          window.remove(candidate.getKey());
+          if (size() < maxEntries)
+          {
+            main.put(candidate.getKey(), candidate.getValue());
+            continue;
+          }
+          Map.Entry<TimetreeKey, TimeTreeMap> victim = eldest(main);
+          if (victim != null && sketch.frequency(candidate.getKey().hashCode()) > sketch.frequency(victim.getKey().hashCode()))
+          {
+            main.remove(victim.getKey());
+            main.put(candidate.getKey(), candidate.getValue());
+            candidate = victim;
+          }
+          evicted(candidate.getValue());
+        }
+        else
+        {
+          Map.Entry<TimetreeKey, TimeTreeMap> victim = eldest(main);
+          main.remove(victim.getKey());
+          evicted(victim.getValue());
+        }
+      }
+    }
+
+    private void evicted(TimeTreeMap timetreeMap)
+    {
+      release(timetreeMap);
+      metrics.trackEvictedByMaxEntries();
+    }
+
+    private Map.Entry<TimetreeKey, TimeTreeMap> eldest(LinkedHashMap<TimetreeKey, TimeTreeMap> tracks)
+    {
+      Iterator<Map.Entry<TimetreeKey, TimeTreeMap>> entries = tracks.entrySet().iterator();
+      return entries.hasNext() ? entries.next() : null;
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Hands out blocks of off-heap memory for track histories. Memory is reserved in direct slabs of 50 MB that are split
+ * as a buddy system into blocks of a power of two vertices, each vertex taking a time, an x/y pair and a kept byte. A
+ * freed block is merged with its buddy while the buddy is free too, so the blocks a track outgrew become available to
+ * tracks of any size again. Slabs are never given back, the memory of an allocator is released when it is garbage
+ * collected.
+ * <p>
+ * A block is identified by a handle, the index of its slab in the upper and its byte offset in the lower 32 bits. The
+ * free lists are linked through the free blocks themselves; only the slab buffers and a byte per 8 vertices marking
+ * the free blocks live on the heap.
+ */
+public class TimetreeSlabAllocator
+{
+  public static final int   VERTEX_BYTES  = 25;
+  private static final int  UNIT_VERTICES = 8;
+  private static final int  UNIT_BYTES    = UNIT_VERTICES * VERTEX_BYTES;
+  private static final int  MAX_ORDER     = 18;
+  private static final int  SLAB_UNITS    = 1 << MAX_ORDER;
+  private static final int  SLAB_BYTES    = SLAB_UNITS * UNIT_BYTES;
+  // the capacity of the largest block, a whole slab
+  public static final int   MAX_VERTICES  = SLAB_UNITS * UNIT_VERTICES;
+  private static final long NONE          = -1;
+
+  private ByteBuffer[]      slabs         = new ByteBuffer[0];
+  // per slab and unit, the order + 1 of the free block starting at that unit or 0
+  private byte[][]          freeOrders    = new byte[0][];
+  private final long[]      freeLists     = new long[MAX_ORDER + 1];
+  private long              blockBytes    = 0;
+
+  public TimetreeSlabAllocator()
+  {
+    Arrays.fill(freeLists, NONE);
+  }
+
+  /**
+   * Allocates a block for the given capacity, which must be a power of two of at least 8.
+   */
+  public synchronized long allocate(int capacity)
+  {
+    int order = order(capacity);
+    if (capacity < UNIT_VERTICES || order > MAX_ORDER)
+      throw new IllegalArgumentException("Can't allocate an off-heap block for " + capacity + " vertices.");
+    int available = order;
+    while (available <= MAX_ORDER && freeLists[available] == NONE)
+      available++;
+    if (available > MAX_ORDER)
+    {
+      addSlab();
+      available = MAX_ORDER;
+    }
+    long block = pop(available);
+    // split off the upper halves until the block has the requested size
+    while (available > order)
+    {
+      available--;
+      push(block + ((long) UNIT_BYTES << available), available);
+    }
+    blockBytes += (long) capacity * VERTEX_BYTES;
+    return block;
+  }
+
+  public synchronized void free(long block, int capacity)
+  {
+    int order = order(capacity);
+    blockBytes -= (long) capacity * VERTEX_BYTES;
+    byte[] orders = freeOrders[(int) (block >>> 32)];
+    int unit = offset(block) / UNIT_BYTES;
+    while (order < MAX_ORDER)
+    {
+      int buddy = unit ^ (1 << order);
+      if (orders[buddy] != order + 1)
+        break;
+      unlink((block & 0xFFFFFFFF00000000L) | ((long) buddy * UNIT_BYTES), order);
+      unit = Math.min(unit, buddy);
+      order++;
+    }
+    push((block & 0xFFFFFFFF00000000L) | ((long) unit * UNIT_BYTES), order);
+  }
+
+  /**
+   * The slab a block was cut from. Only valid for handles returned by allocate().
+   */
+  public synchronized ByteBuffer slab(long block)
+  {
+    return slabs[(int) (block >>> 32)];
+  }
+
+  public static int offset(long block)
+  {
+    return (int) block;
+  }
+
+  /**
+   * Off-heap memory reserved by the slabs.
+   */
+  public synchronized long getReservedBytes()
+  {
+    return (long) slabs.length * SLAB_BYTES;
+  }
+
+  /**
+   * Off-heap memory in blocks that are in use.
+   */
+  public synchronized long getBlockBytes()
+  {
+    return blockBytes;
+  }
+
+  private void addSlab()
+  {
+    ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_BYTES).order(ByteOrder.nativeOrder());
+    slabs = Arrays.copyOf(slabs, slabs.length + 1);
+    slabs[slabs.length - 1] = slab;
+    freeOrders = Arrays.copyOf(freeOrders, freeOrders.length + 1);
+    freeOrders[freeOrders.length - 1] = new byte[SLAB_UNITS];
+    push((long) (slabs.length - 1) << 32, MAX_ORDER);
+  }
+
+  // a free block holds the handles of the next and the previous free block of its order in its first 16 bytes
+
+  private void push(long block, int order)
+  {
+    ByteBuffer slab = slabs[(int) (block >>> 32)];
+    long next = freeLists[order];
+    slab.putLong(offset(block), next);
+    slab.putLong(offset(block) + 8, NONE);
+    if (next != NONE)
+      slabs[(int) (next >>> 32)].putLong(offset(next) + 8, block);
+    freeLists[order] = block;
+    freeOrders[(int) (block >>> 32)][offset(block) / UNIT_BYTES] = (byte) (order + 1);
+  }
+
+  private long pop(int order)
+  {
+    long block = freeLists[order];
+    unlink(block, order);
+    return block;
+  }
+
+  private void unlink(long block, int order)
+  {
+    ByteBuffer slab = slabs[(int) (block >>> 32)];
+    long next = slab.getLong(offset(block));
+    long previous = slab.getLong(offset(block) + 8);
+    if (previous == NONE)
+      freeLists[order] = next;
+    else
+      slabs[(int) (previous >>> 32)].putLong(offset(previous), next);
+    if (next != NONE)
+      slabs[(int) (next >>> 32)].putLong(offset(next) + 8, previous);
+    freeOrders[(int) (block >>> 32)][offset(block) / UNIT_BYTES] = 0;
+  }
+
+  private static int order(int capacity)
+  {
+    return 31 - Integer.numberOfLeadingZeros(capacity / UNIT_VERTICES);
+  }
+}
@@ -0,0 +1,188 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Vertex columns held in a block of an off-heap slab. The block holds the time column, then the interleaved x/y column
+ * and then a kept byte per slot, all read and written in place through the slab's absolute accessors. Growing or
+ * shrinking moves the vertices to a new block and frees the old one.
+ */
+public class TimetreeSlabStore extends TimetreeVertexStore
+{
+  private final TimetreeSlabAllocator allocator;
+  private long                        block;
+  private ByteBuffer                  slab;
+  private int                         timesOffset;
+  private int                         coordinatesOffset;
+  private int                         keptOffset;
+  private int                         capacity;
+  private boolean                     keptColumn = false;
+
+  public TimetreeSlabStore(TimetreeSlabAllocator allocator, int capacity)
+  {
+    this.allocator = allocator;
+    allocate(capacity);
+  }
+
+  private void allocate(int newCapacity)
+  {
+    block = allocator.allocate(newCapacity);
+    slab = allocator.slab(block);
+    capacity = newCapacity;
+    timesOffset = TimetreeSlabAllocator.offset(block);
+    coordinatesOffset = timesOffset + (newCapacity << 3);
+    keptOffset = coordinatesOffset + (newCapacity << 4);
+  }
+
+  @Override
+  public int capacity()
+  {
+    return capacity;
+  }
+
+  @Override
+  public int maxCapacity()
+  {
+    return TimetreeSlabAllocator.MAX_VERTICES;
+  }
+
+  @Override
+  public long getTime(int slot)
+  {
+    return slab.getLong(timesOffset + (slot << 3));
+  }
+
+  @Override
+  public double getX(int slot)
+  {
+    return slab.getDouble(coordinatesOffset + (slot << 4));
+  }
+
+  @Override
+  public double getY(int slot)
+  {
+    return slab.getDouble(coordinatesOffset + (slot << 4) + 8);
+  }
+
+  @Override
+  public void set(int slot, long time, double x, double y)
+  {
+    slab.putLong(timesOffset + (slot << 3), time);
+    slab.putDouble(coordinatesOffset + (slot << 4), x);
+    slab.putDouble(coordinatesOffset + (slot << 4) + 8, y);
+  }
+
+  @Override
+  public boolean isKept(int slot)
+  {
+    return slab.get(keptOffset + slot) != 0;
+  }
+
+  @Override
+  public void setKept(int slot, boolean kept)
+  {
+    slab.put(keptOffset + slot, kept ? (byte) 1 : (byte) 0);
+  }
+
+  @Override
+  public void setKeptColumn(boolean enabled)
+  {
+    // the kept bytes are part of every block, they only need clearing
+    keptColumn = enabled;
+    if (enabled)
+    {
+      for (int slot = 0; slot < capacity; slot++)
+        slab.put(keptOffset + slot, (byte) 0);
+    }
+  }
+
+  @Override
+  public void move(int fromSlot, int toSlot)
+  {
+    slab.putLong(timesOffset + (toSlot << 3), slab.getLong(timesOffset + (fromSlot << 3)));
+    slab.putDouble(coordinatesOffset + (toSlot << 4), slab.getDouble(coordinatesOffset + (fromSlot << 4)));
+    slab.putDouble(coordinatesOffset + (toSlot << 4) + 8, slab.getDouble(coordinatesOffset + (fromSlot << 4) + 8));
+    if (keptColumn)
+      slab.put(keptOffset + toSlot, slab.get(keptOffset + fromSlot));
+  }
+
+  @Override
+  public void resize(int newCapacity, int head, int size)
+  {
+    long oldBlock = block;
+    ByteBuffer oldSlab = slab;
+    int oldCapacity = capacity;
+    int oldTimes = timesOffset;
+    int oldCoordinates = coordinatesOffset;
+    int oldKept = keptOffset;
+    allocate(newCapacity);
+    for (int i = 0; i < size; i++)
+    {
+      int from = (head + i) & (oldCapacity - 1);
+      slab.putLong(timesOffset + (i << 3), oldSlab.getLong(oldTimes + (from << 3)));
+      slab.putDouble(coordinatesOffset + (i << 4), oldSlab.getDouble(oldCoordinates + (from << 4)));
+      slab.putDouble(coordinatesOffset + (i << 4) + 8, oldSlab.getDouble(oldCoordinates + (from << 4) + 8));
+      if (keptColumn)
+        slab.put(keptOffset + i, oldSlab.get(oldKept + from));
+    }
+    allocator.free(oldBlock, oldCapacity);
+  }
+
+  @Override
+  public void write(ByteBuffer buffer, int head, int size)
+  {
+    int position = buffer.position();
+    for (int i = 0; i < size; i++)
+    {
+      int slot = (head + i) & (capacity - 1);
+      buffer.putLong(position + (i << 3), getTime(slot));
+      buffer.putDouble(position + (size << 3) + (i << 4), getX(slot));
+      buffer.putDouble(position + (size << 3) + (i << 4) + 8, getY(slot));
+    }
+    buffer.position(position + size * 24);
+  }
+
+  @Override
+  public void read(ByteBuffer buffer, int count)
+  {
+    int position = buffer.position();
+    for (int i = 0; i < count; i++)
+      set(i, buffer.getLong(position + (i << 3)), buffer.getDouble(position + (count << 3) + (i << 4)), buffer.getDouble(position + (count << 3) + (i << 4) + 8));
+    buffer.position(position + count * 24);
+  }
+
+  @Override
+  public void copyCoordinates(ByteBuffer buffer, int first, int count)
+  {
+    int position = buffer.position();
+    for (int i = 0; i < count; i++)
+    {
+      int slot = (first + i) & (capacity - 1);
+      buffer.putDouble(position + (i << 4), getX(slot));
+      buffer.putDouble(position + (i << 4) + 8, getY(slot));
+    }
+    buffer.position(position + (count << 4));
+  }
+
+  @Override
+  public long getBytes()
+  {
+    return (long) capacity * TimetreeSlabAllocator.VERTEX_BYTES;
+  }
+
+  @Override
+  public boolean isOffHeap()
+  {
+    return true;
+  }
+
+  @Override
+  public void release()
+  {
+    if (slab != null)
+    {
+      allocator.free(block, capacity);
+      slab = null;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.esri.core.geometry.MapGeometry;
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+import com.esri.ges.messaging.GeoEventCreator;
+
+/**
+ * Sends the current line of every track through the processor's output on a fixed schedule, e.g. for a dashboard that
+ * starts cold or a job overwriting a feature service. Each line is sent as a copy of the latest event of its track,
+ * created from the field values the track keeps of it.
+ * Lines are read with TimeTreeMap.snapshotGeometry(), without the track's monitor, and the registry is visited a stripe
+ * at a time with the stripe's tracks copied out first, so taking a snapshot holds up neither lookups nor updates.
+ */
+public class TimetreeSnapshotPublisher implements Runnable
+{
+  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(TimetreeProcessor.class);
+
+  private final TimetreeProcessor   processor;
+  private final TimetreeRegistry    registry;
+  private final TimetreeMetrics     metrics;
+  private final GeoEventCreator     geoEventCreator;
+  private final long                window;
+  private final boolean             byTime;
+  private final long                intervalMillis;
+  private ScheduledExecutorService  executor;
+
+  public TimetreeSnapshotPublisher(TimetreeProcessor processor, TimetreeRegistry registry, TimetreeMetrics metrics, GeoEventCreator geoEventCreator, long window, boolean byTime, long intervalMillis)
+  {
+    this.processor = processor;
+    this.registry = registry;
+    this.metrics = metrics;
+    this.geoEventCreator = geoEventCreator;
+    this.window = window;
+    this.byTime = byTime;
+    this.intervalMillis = intervalMillis;
+  }
+
+  public synchronized void start()
+  {
+    if (executor == null)
+    {
+      executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+          Thread thread = new Thread(runnable, "timetree-snapshot");
+          thread.setDaemon(true);
+          return thread;
+        });
+      executor.scheduleWithFixedDelay(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public synchronized void stop()
+  {
+    if (executor != null)
+    {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  @Override
+  public void run()
+  {
+    long startTime = System.nanoTime();
+    try
+    {
+      registry.forEach(this::publish);
+    }
+    catch (Throwable t)
+    {
+      LOGGER.warn("Failed to send the track snapshot.", t);
+    }
+    metrics.recordSnapshot(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+  }
+
+  private void publish(TimeTreeMap timetreeMap)
+  {
+    Object[] latestFields = timetreeMap.getLatestFields();
+    if (latestFields == null || timetreeMap.isRetired())
+      return;
+    MapGeometry geometry = timetreeMap.snapshotGeometry(window, byTime);
+    if (geometry == null)
+      return;
+    // only the copy that passed validation is counted, not the ones retried
+    processor.recordOutput(geometry);
+    try
+    {
+      // the fields are the latest event's own, the snapshot gets a copy it may change
+      GeoEvent snapshot = geoEventCreator.create(timetreeMap.getTrackKey().getDefinitionGuid(), latestFields.clone());
+      snapshot.setGeometry(geometry);
+      processor.send(snapshot);
+      metrics.snapshotLineSent();
+    }
+    catch (Exception e)
+    {
+      LOGGER.debug("Failed to send the snapshot of track " + timetreeMap.getTrackKey() + ".", e);
+    }
+  }
+}
@@ -0,0 +1,341 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.util.Arrays;
+
+/**
+ * Statistics of a track's history kept up to date as vertices are written and removed, so they cost a few operations
+ * per event instead of a walk over the line. The length is a running sum of the segment lengths: writing or removing a
+ * vertex swaps the segments to its neighbours for the one between them. The envelope comes from four monotonic deques
+ * of the vertices not exceeded by a later one, whose first entry is the extreme of the history.
+ * <p>
+ * Lengths are planar, in the units of the spatial reference. The length follows vertices that are rounded as they are
+ * compressed, the envelope keeps their coordinates from before and is off by up to half the precision.
+ */
+public class TimetreeStats
+{
+  private double         length = 0;
+  private final Extremes xMin   = new Extremes(false, true);
+  private final Extremes xMax   = new Extremes(true, true);
+  private final Extremes yMin   = new Extremes(false, false);
+  private final Extremes yMax   = new Extremes(true, false);
+
+  /**
+   * The vertex at the index of the history was just written.
+   */
+  public void added(TimeTreeMap history, int index)
+  {
+    length += segmentsAround(history, index);
+    long time = history.getTime(index);
+    xMin.insert(time, history.getX(index));
+    xMax.insert(time, history.getX(index));
+    yMin.insert(time, history.getY(index));
+    yMax.insert(time, history.getY(index));
+  }
+
+  /**
+   * The vertex at the index of the history is about to be removed or overwritten.
+   */
+  public void removing(TimeTreeMap history, int index)
+  {
+    length -= segmentsAround(history, index);
+    long time = history.getTime(index);
+    xMin.remove(time, history, index);
+    xMax.remove(time, history, index);
+    yMin.remove(time, history, index);
+    yMax.remove(time, history, index);
+  }
+
+  /**
+   * Computes the statistics of the whole history anew.
+   */
+  public void reset(TimeTreeMap history)
+  {
+    clear();
+    int size = history.size();
+    for (int i = 0; i < size; i++)
+    {
+      long time = history.getTime(i);
+      double x = history.getX(i);
+      double y = history.getY(i);
+      if (i > 0)
+        length += distance(x - history.getX(i - 1), y - history.getY(i - 1));
+      xMin.insert(time, x);
+      xMax.insert(time, x);
+      yMin.insert(time, y);
+      yMax.insert(time, y);
+    }
+  }
+
+  /**
+   * The count vertices from the index of the history are about to be compressed, with their coordinates rounded to the
+   * precision.
+   */
+  public void sealing(TimeTreeMap history, int index, int count, double precision)
+  {
+    int first = Math.max(0, index - 1);
+    int end = Math.min(history.size(), index + count + 1);
+    double previousX = 0;
+    double previousY = 0;
+    double roundedX = 0;
+    double roundedY = 0;
+    for (int i = first; i < end; i++)
+    {
+      double x = history.getX(i);
+      double y = history.getY(i);
+      boolean rounded = i >= index && i < index + count;
+      double xRounded = rounded ? Math.round(x / precision) * precision : x;
+      double yRounded = rounded ? Math.round(y / precision) * precision : y;
+      if (i > first)
+        length += distance(xRounded - roundedX, yRounded - roundedY) - distance(x - previousX, y - previousY);
+      previousX = x;
+      previousY = y;
+      roundedX = xRounded;
+      roundedY = yRounded;
+    }
+  }
+
+  public void clear()
+  {
+    length = 0;
+    xMin.clear();
+    xMax.clear();
+    yMin.clear();
+    yMax.clear();
+  }
+
+  public double getLength()
+  {
+    // removals can leave a rounding residue behind
+    return Math.max(0, length);
+  }
+
+  /**
+   * Time between the first and the last vertex in milliseconds.
+   */
+  public long getDuration(TimeTreeMap history)
+  {
+    int size = history.size();
+    return (size > 1) ? history.getTime(size - 1) - history.getTime(0) : 0;
+  }
+
+  /**
+   * Direction of the last segment in degrees clockwise from north (up), or NaN without one.
+   */
+  public double getHeading(TimeTreeMap history)
+  {
+    int last = history.size() - 1;
+    if (last < 1)
+      return Double.NaN;
+    double heading = Math.toDegrees(Math.atan2(history.getX(last) - history.getX(last - 1), history.getY(last) - history.getY(last - 1)));
+    return (heading < 0) ? heading + 360 : heading;
+  }
+
+  public double getXMin()
+  {
+    return xMin.get();
+  }
+
+  public double getXMax()
+  {
+    return xMax.get();
+  }
+
+  public double getYMin()
+  {
+    return yMin.get();
+  }
+
+  public double getYMax()
+  {
+    return yMax.get();
+  }
+
+  /**
+   * Estimated heap retained by the statistics.
+   */
+  public long getBytes()
+  {
+    return 48 + xMin.getBytes() + xMax.getBytes() + yMin.getBytes() + yMax.getBytes();
+  }
+
+  /**
+   * The length the vertex at the index adds to the line: its segments to both neighbours, less the segment that joins
+   * the neighbours without it.
+   */
+  private static double segmentsAround(TimeTreeMap history, int index)
+  {
+    int last = history.size() - 1;
+    double x = history.getX(index);
+    double y = history.getY(index);
+    double around = 0;
+    if (index > 0)
+      around += distance(x - history.getX(index - 1), y - history.getY(index - 1));
+    if (index < last)
+      around += distance(history.getX(index + 1) - x, history.getY(index + 1) - y);
+    if (index > 0 && index < last)
+      around -= distance(history.getX(index + 1) - history.getX(index - 1), history.getY(index + 1) - history.getY(index - 1));
+    return around;
+  }
+
+  private static double distance(double dx, double dy)
+  {
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  /**
+   * Deque of the vertices whose coordinate beats that of every later vertex, ordered by time, so the first entry holds
+   * the extreme. Entries are identified by the vertex time, which stays valid while other vertices are inserted or
+   * removed.
+   */
+  private static final class Extremes
+  {
+    private final boolean max;
+    private final boolean x;
+    private long[]        times  = new long[8];
+    private double[]      values = new double[8];
+    private int           start  = 0;
+    private int           end    = 0;
+
+    Extremes(boolean max, boolean x)
+    {
+      this.max = max;
+      this.x = x;
+    }
+
+    double get()
+    {
+      return (end > start) ? values[start] : Double.NaN;
+    }
+
+    void clear()
+    {
+      start = 0;
+      end = 0;
+    }
+
+    long getBytes()
+    {
+      return 48 + ((long) times.length << 4);
+    }
+
+    /**
+     * Adds a vertex. It is an entry unless a later entry beats it, and it evicts the earlier entries it beats.
+     */
+    void insert(long time, double value)
+    {
+      int next = search(time);
+      if (next < 0)
+        next = -(next + 1);
+      if (next < end && !beats(value, values[next]))
+        return;
+      int first = next;
+      while (first > start && !beats(values[first - 1], value))
+        first--;
+      // deleting moves the entries, the offset from the first entry stays
+      int offset = first - start;
+      if (first < next)
+        delete(first, next - first);
+      add(start + offset, time, value);
+    }
+
+    /**
+     * Removes a vertex at the index of the history. The earlier vertices it beat are entries again if they beat every
+     * later one, they are found walking back from it to the previous entry.
+     */
+    void remove(long time, TimeTreeMap history, int index)
+    {
+      int entry = search(time);
+      if (entry < 0)
+        return;
+      long previousTime = (entry > start) ? times[entry - 1] : Long.MIN_VALUE;
+      boolean bounded = entry + 1 < end;
+      double best = bounded ? values[entry + 1] : 0;
+      int offset = entry - start;
+      delete(entry, 1);
+      for (int i = index - 1; i >= 0; i--)
+      {
+        long vertexTime = history.getTime(i);
+        if (vertexTime <= previousTime)
+          break;
+        double value = x ? history.getX(i) : history.getY(i);
+        if (!bounded || beats(value, best))
+        {
+          add(start + offset, vertexTime, value);
+          best = value;
+          bounded = true;
+        }
+      }
+    }
+
+    private boolean beats(double value, double other)
+    {
+      return max ? value > other : value < other;
+    }
+
+    /**
+     * Binary search over the entry times, after checking the ends where appended and expired vertices are.
+     */
+    private int search(long time)
+    {
+      if (end == start || time > times[end - 1])
+        return -(end + 1);
+      if (time <= times[start])
+        return (time == times[start]) ? start : -(start + 1);
+      return Arrays.binarySearch(times, start, end, time);
+    }
+
+    private void add(int index, long time, double value)
+    {
+      if (index == start && start > 0)
+      {
+        index = --start;
+      }
+      else
+      {
+        if (end == times.length)
+        {
+          int offset = index - start;
+          compact(((end - start) < (times.length >> 1)) ? times.length : times.length << 1);
+          index = offset;
+        }
+        System.arraycopy(times, index, times, index + 1, end - index);
+        System.arraycopy(values, index, values, index + 1, end - index);
+        end++;
+      }
+      times[index] = time;
+      values[index] = value;
+    }
+
+    private void delete(int index, int count)
+    {
+      if (index == start)
+      {
+        start += count;
+      }
+      else
+      {
+        System.arraycopy(times, index + count, times, index, end - index - count);
+        System.arraycopy(values, index + count, values, index, end - index - count);
+        end -= count;
+      }
+      if (times.length > 64 && (end - start) < (times.length >> 3))
+        compact(times.length >> 2);
+    }
+
+    /**
+     * Moves the entries to the front of arrays of the given capacity.
+     */
+    private void compact(int capacity)
+    {
+      int count = end - start;
+      long[] compactTimes = (capacity == times.length) ? times : new long[capacity];
+      double[] compactValues = (capacity == values.length) ? values : new double[capacity];
+      System.arraycopy(times, start, compactTimes, 0, count);
+      System.arraycopy(values, start, compactValues, 0, count);
+      times = compactTimes;
+      values = compactValues;
+      start = 0;
+      end = count;
+    }
+  }
+}
@@ -0,0 +1,226 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.lang.management.ManagementFactory;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Track histories shared by the processors attached to it under the same name, so processors consuming the same input
+ * cache each track once. The store is owned by the processor service and reference counted: the first processor to
+ * attach creates it with a copy of its track settings and the store is cleared once the last one detached.
+ * <p>
+ * All processors of a store use the same track settings, only the length of their windows may differ. The histories
+ * hold the longest window of the attached processors and each processor cuts its line for its own window from them. A
+ * processor delivering an event another one already added replaces the vertex with the same time, so the event is
+ * still cached once.
+ * <p>
+ * The store does not depend on the processor that created it: it has its own event clock, advanced by the events of
+ * every attached processor, its own off-heap slabs, and its own metrics for the histories, registered with JMX next
+ * to those of the processors.
+ */
+public class TimetreeStore
+{
+  private static final BundleLogger          LOGGER        = BundleLoggerFactory.getLogger(TimetreeProcessor.class);
+  private static final LongSupplier          SYSTEM_CLOCK  = System::currentTimeMillis;
+
+  private final String                       name;
+  private final TimetreeTrackSettings        settings;
+  private final TimetreeMetrics              metrics       = new TimetreeMetrics();
+  private final TimetreeWatermark            watermark     = new TimetreeWatermark();
+  private final TimetreeSlabAllocator        slabAllocator;
+  private final TimetreeRegistry             registry;
+  private final TimetreeExpiryWheel          expiryWheel;
+  private final Map<TimetreeProcessor, Long> windows       = new IdentityHashMap<>();
+  private volatile long                      window        = -1;
+  private ObjectName                         metricsName;
+
+  public TimetreeStore(String name, TimetreeTrackSettings settings)
+  {
+    this.name = name;
+    this.settings = settings;
+    this.window = settings.getWindow();
+    watermark.setAllowedLateness(Math.max(0, settings.getAllowedLateness()));
+    slabAllocator = settings.isOffHeapStorage() ? new TimetreeSlabAllocator() : null;
+    metrics.setSlabAllocator(slabAllocator);
+    registry = new TimetreeRegistry(Math.max(1, settings.getMaxTracks()), this::create, metrics);
+    registry.setMemoryLimit(settings.getMemoryLimit());
+    metrics.setRegistry(registry);
+    if (settings.isCountWindow())
+    {
+      expiryWheel = null;
+    }
+    else
+    {
+      expiryWheel = new TimetreeExpiryWheel(registry, window, clock());
+      expiryWheel.start();
+    }
+    registerMetrics();
+  }
+
+  public String getName()
+  {
+    return name;
+  }
+
+  public TimetreeRegistry getRegistry()
+  {
+    return registry;
+  }
+
+  /**
+   * The expiry wheel of a store of time windows, null for count windows.
+   */
+  public TimetreeExpiryWheel getExpiryWheel()
+  {
+    return expiryWheel;
+  }
+
+  /**
+   * The event clock of the store, which the attached processors advance with the times of their events.
+   */
+  public TimetreeWatermark getWatermark()
+  {
+    return watermark;
+  }
+
+  /**
+   * Metrics of the shared histories: lookups, evictions, expired, trimmed and dropped vertices.
+   */
+  public TimetreeMetrics getMetrics()
+  {
+    return metrics;
+  }
+
+  /**
+   * Attaches a processor with the given track settings. Returns false when they differ from the store's by more than
+   * the length of the window.
+   */
+  public synchronized boolean attach(TimetreeProcessor processor, TimetreeTrackSettings settings)
+  {
+    if (!this.settings.isCompatible(settings))
+      return false;
+    windows.put(processor, settings.getWindow());
+    resize();
+    return true;
+  }
+
+  /**
+   * Detaches a processor and returns the number of processors still attached.
+   */
+  public synchronized int detach(TimetreeProcessor processor)
+  {
+    if (windows.remove(processor) != null && !windows.isEmpty())
+      resize();
+    return windows.size();
+  }
+
+  /**
+   * Tells whether the processor is the only one attached.
+   */
+  public synchronized boolean isAttachedAlone(TimetreeProcessor processor)
+  {
+    return windows.size() == 1 && windows.containsKey(processor);
+  }
+
+  /**
+   * Stops the expiry wheel and drops all tracks, once no processor is attached anymore.
+   */
+  public void close()
+  {
+    if (expiryWheel != null)
+      expiryWheel.stop();
+    registry.clear();
+    unregisterMetrics();
+  }
+
+  /**
+   * The clock time windows are measured against.
+   */
+  private LongSupplier clock()
+  {
+    return settings.isEventClock() ? watermark : SYSTEM_CLOCK;
+  }
+
+  /**
+   * Makes every history hold the longest window of the attached processors. A longer window applies to the events
+   * received from then on, a shorter one trims the histories as they are updated or expire.
+   */
+  private void resize()
+  {
+    long longest = 0;
+    for (long processorWindow : windows.values())
+      longest = Math.max(longest, processorWindow);
+    if (longest == window)
+      return;
+    window = longest;
+    registry.forEach(timetreeMap ->
+      {
+        synchronized (timetreeMap)
+        {
+          applyWindow(timetreeMap);
+        }
+      });
+  }
+
+  private TimeTreeMap create(TimetreeKey trackKey)
+  {
+    TimeTreeMap timetreeMap = settings.create(trackKey, clock(), slabAllocator, metrics);
+    applyWindow(timetreeMap);
+    return timetreeMap;
+  }
+
+  private void applyWindow(TimeTreeMap timetreeMap)
+  {
+    if (settings.isCountWindow())
+    {
+      timetreeMap.setMaxAge(-1);
+      timetreeMap.setMaxSize((int) window);
+    }
+    else
+    {
+      timetreeMap.setMaxSize(-1);
+      timetreeMap.setMaxAge(window);
+    }
+  }
+
+  private void registerMetrics()
+  {
+    try
+    {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName("com.esri.geoevent.processor.timetree:type=TimetreeStore,name=" + ObjectName.quote(name));
+      if (!server.isRegistered(objectName))
+      {
+        server.registerMBean(metrics, objectName);
+        metricsName = objectName;
+      }
+    }
+    catch (Exception ex)
+    {
+      LOGGER.warn("Failed to register shared cache metrics with JMX.", ex);
+    }
+  }
+
+  private void unregisterMetrics()
+  {
+    if (metricsName != null)
+    {
+      try
+      {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+      }
+      catch (Exception ex)
+      {
+        LOGGER.debug("Failed to unregister shared cache metrics from JMX.", ex);
+      }
+      metricsName = null;
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * The settings of a processor that shape the histories of its tracks. A shared store creates its tracks with the
+ * settings of the processor that created it, so only processors with the same settings can attach to it; only the
+ * length of their windows may differ.
+ */
+public class TimetreeTrackSettings
+{
+  private final boolean countWindow;
+  private final long    window;
+  private final String  timeField;
+  private final boolean eventClock;
+  private final long    allowedLateness;
+  private final double  dedupeTolerance;
+  private final double  lineTolerance;
+  private final long[]  tierAges;
+  private final long[]  tierIntervals;
+  private final boolean offHeapStorage;
+  private final double  vertexPrecision;
+  private final boolean statistics;
+  private final boolean snapshots;
+  private final int     maxTracks;
+  private final long    memoryLimit;
+
+  public TimetreeTrackSettings(boolean countWindow, long window, String timeField, boolean eventClock, long allowedLateness, double dedupeTolerance, double lineTolerance, long[] tierAges, long[] tierIntervals, boolean offHeapStorage, double vertexPrecision, boolean statistics, boolean snapshots, int maxTracks, long memoryLimit)
+  {
+    this.countWindow = countWindow;
+    this.window = window;
+    this.timeField = timeField;
+    this.eventClock = eventClock;
+    this.allowedLateness = allowedLateness;
+    this.dedupeTolerance = dedupeTolerance;
+    this.lineTolerance = lineTolerance;
+    // downsampling only applies to time windows
+    this.tierAges = countWindow ? null : tierAges;
+    this.tierIntervals = countWindow ? null : tierIntervals;
+    this.offHeapStorage = offHeapStorage;
+    this.vertexPrecision = vertexPrecision;
+    this.statistics = statistics;
+    this.snapshots = snapshots;
+    this.maxTracks = maxTracks;
+    this.memoryLimit = memoryLimit;
+  }
+
+  public boolean isCountWindow()
+  {
+    return countWindow;
+  }
+
+  /**
+   * The number of events of a count window or the milliseconds of a time window.
+   */
+  public long getWindow()
+  {
+    return window;
+  }
+
+  /**
+   * The field the times of the vertices are taken from: RECEIVED_TIME, TIME_START or TIME_END.
+   */
+  public String getTimeField()
+  {
+    return timeField;
+  }
+
+  public boolean isEventClock()
+  {
+    return eventClock;
+  }
+
+  public long getAllowedLateness()
+  {
+    return allowedLateness;
+  }
+
+  public boolean isOffHeapStorage()
+  {
+    return offHeapStorage;
+  }
+
+  public int getMaxTracks()
+  {
+    return maxTracks;
+  }
+
+  public long getMemoryLimit()
+  {
+    return memoryLimit;
+  }
+
+  /**
+   * Creates the history of a track measured against the given clock, with its vertices in blocks of the slab
+   * allocator when the storage is off-heap.
+   */
+  public TimeTreeMap create(TimetreeKey trackKey, LongSupplier clock, TimetreeSlabAllocator slabAllocator, TimetreeMetrics metrics)
+  {
+    TimeTreeMap timetreeMap;
+    if (countWindow)
+      timetreeMap = new TimeTreeMap(trackKey, (int) window);
+    else
+      timetreeMap = new TimeTreeMap(trackKey, window);
+    timetreeMap.setClock(clock);
+    if (offHeapStorage)
+      timetreeMap.setStore(new TimetreeSlabStore(slabAllocator, TimeTreeMap.MIN_CAPACITY));
+    timetreeMap.setTolerance(dedupeTolerance);
+    timetreeMap.setLineTolerance(lineTolerance);
+    if (!countWindow)
+      timetreeMap.setTiers(tierAges, tierIntervals);
+    timetreeMap.setPrecision(vertexPrecision);
+    timetreeMap.setStatistics(statistics);
+    timetreeMap.setSnapshots(snapshots);
+    timetreeMap.setMetrics(metrics);
+    return timetreeMap;
+  }
+
+  /**
+   * Tells whether tracks created with these settings hold the histories the other settings would create, but for the
+   * length of the window.
+   */
+  public boolean isCompatible(TimetreeTrackSettings other)
+  {
+    if (countWindow != other.countWindow || !Objects.equals(timeField, other.timeField))
+      return false;
+    if (eventClock != other.eventClock || allowedLateness != other.allowedLateness)
+      return false;
+    if (dedupeTolerance != other.dedupeTolerance || lineTolerance != other.lineTolerance || vertexPrecision != other.vertexPrecision)
+      return false;
+    if (!Arrays.equals(tierAges, other.tierAges) || !Arrays.equals(tierIntervals, other.tierIntervals))
+      return false;
+    if (offHeapStorage != other.offHeapStorage || statistics != other.statistics || snapshots != other.snapshots)
+      return false;
+    return maxTracks == other.maxTracks && memoryLimit == other.memoryLimit;
+  }
+}
@@ -0,0 +1,394 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The older part of a track's history, compressed. Vertices are sealed in chunks of a fixed number of vertices: the
+ * first vertex of a chunk is stored as is, every following one as zigzag varints of the change of the time step and of
+ * the change of the x and y coordinates, which are quantized to a fixed precision. A track reporting at a steady rate
+ * takes 3 to 6 bytes per vertex instead of 24.
+ * <p>
+ * Vertices are removed from the front one at a time and a chunk is dropped as a whole once its last vertex is gone.
+ * Lines and checkpoints decode the chunks on demand. Chunks are linked oldest to newest, so walking them allocates
+ * nothing. Reads by index continue from the vertex read last when it is not after the one asked for, so a walk from
+ * oldest to newest decodes every vertex once.
+ */
+public class TimetreeVertexChunks
+{
+  public static final int                  CHUNK_VERTICES   = 128;
+  // worst case of a varint time step change and two varint coordinate changes
+  private static final int                 MAX_VERTEX_BYTES = 30;
+  // estimated fixed cost of this object with its cursors, and of a chunk object with its array headers
+  private static final int                 BASE_BYTES       = 128;
+  private static final int                 CHUNK_BYTES      = 88;
+
+  private static final ThreadLocal<byte[]> ENCODE_BUFFER    = new ThreadLocal<byte[]>();
+
+  private final double                     precision;
+  private Chunk                            oldest           = null;
+  private Chunk                            newest           = null;
+  private int                              size             = 0;
+  private long                             bytes            = BASE_BYTES;
+  // positioned on the oldest vertex, and a cursor for reads with the index it is positioned on, -1 when unknown
+  private final Cursor                     first            = new Cursor();
+  private final Cursor                     scan             = new Cursor();
+  private int                              scanIndex        = -1;
+
+  public TimetreeVertexChunks(double precision)
+  {
+    this.precision = precision;
+  }
+
+  /**
+   * Seals count vertices of the store, starting at the given slot of a ring with the given mask, in a new chunk after
+   * the newest one. The vertices must be newer than the ones already sealed.
+   */
+  public void append(TimetreeVertexStore store, int slot, int mask, int count, boolean withKept)
+  {
+    byte[] buffer = ENCODE_BUFFER.get();
+    if (buffer == null || buffer.length < count * MAX_VERTEX_BYTES)
+    {
+      buffer = new byte[count * MAX_VERTEX_BYTES];
+      ENCODE_BUFFER.set(buffer);
+    }
+    Chunk chunk = new Chunk();
+    chunk.count = count;
+    if (withKept)
+      chunk.kept = new long[(count + 63) >> 6];
+    int position = 0;
+    long time = 0;
+    long step = 0;
+    long x = 0;
+    long y = 0;
+    for (int i = 0; i < count; i++, slot = (slot + 1) & mask)
+    {
+      long vertexTime = store.getTime(slot);
+      long vertexX = Math.round(store.getX(slot) / precision);
+      long vertexY = Math.round(store.getY(slot) / precision);
+      if (i == 0)
+      {
+        chunk.time = vertexTime;
+        chunk.x = vertexX;
+        chunk.y = vertexY;
+      }
+      else
+      {
+        long vertexStep = vertexTime - time;
+        position = writeVarint(buffer, position, vertexStep - step);
+        position = writeVarint(buffer, position, vertexX - x);
+        position = writeVarint(buffer, position, vertexY - y);
+        step = vertexStep;
+      }
+      time = vertexTime;
+      x = vertexX;
+      y = vertexY;
+      if (withKept && store.isKept(slot))
+        chunk.kept[i >> 6] |= 1L << i;
+    }
+    chunk.lastTime = time;
+    chunk.data = Arrays.copyOf(buffer, position);
+
+    if (newest == null)
+    {
+      oldest = chunk;
+      first.reset(chunk);
+    }
+    else
+    {
+      newest.next = chunk;
+    }
+    // a cursor past the newest vertex does not see the new chunk
+    if (scanIndex >= 0 && scan.chunk == null)
+      scanIndex = -1;
+    newest = chunk;
+    size += count;
+    bytes += chunkBytes(chunk);
+  }
+
+  public double getPrecision()
+  {
+    return precision;
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  public long getFirstTime()
+  {
+    return first.time;
+  }
+
+  public long getLastTime()
+  {
+    return newest.lastTime;
+  }
+
+  public void removeFirst()
+  {
+    if (!first.next())
+      return;
+    size--;
+    // the vertices move down by one, the removed one is no longer there to continue from
+    scanIndex = (scanIndex > 0) ? scanIndex - 1 : -1;
+    if (first.chunk != oldest)
+    {
+      bytes -= chunkBytes(oldest);
+      oldest = first.chunk;
+      if (oldest == null)
+        newest = null;
+    }
+  }
+
+  public void clear()
+  {
+    oldest = null;
+    newest = null;
+    first.reset(null);
+    scanIndex = -1;
+    size = 0;
+    bytes = BASE_BYTES;
+  }
+
+  public long getTime(int index)
+  {
+    return seek(index).time;
+  }
+
+  public double getX(int index)
+  {
+    return seek(index).x * precision;
+  }
+
+  public double getY(int index)
+  {
+    return seek(index).y * precision;
+  }
+
+  /**
+   * Index of the first vertex at or after the given time, or size() when there is none.
+   */
+  public int indexOf(long time)
+  {
+    if (size == 0 || time > newest.lastTime)
+      return size;
+    scan.set(first);
+    int index = 0;
+    while (scan.chunk.lastTime < time)
+    {
+      index += scan.chunk.count - scan.index;
+      scan.reset(scan.chunk.next);
+    }
+    while (scan.time < time)
+    {
+      scan.next();
+      index++;
+    }
+    scanIndex = index;
+    return index;
+  }
+
+  /**
+   * Writes the interleaved coordinates of the vertices from the given index on to the buffer and advances its position.
+   * With keptOnly only the first vertex, the vertices flagged as kept and, with includeLast, the last vertex are written.
+   */
+  public void copyCoordinates(ByteBuffer buffer, int from, boolean keptOnly, boolean includeLast)
+  {
+    Cursor cursor = seek(from);
+    int position = buffer.position();
+    for (int i = from; i < size; i++)
+    {
+      if (!keptOnly || i == from || cursor.isKept() || (includeLast && i == size - 1))
+      {
+        buffer.putDouble(position, cursor.x * precision);
+        buffer.putDouble(position + 8, cursor.y * precision);
+        position += 16;
+      }
+      cursor.next();
+    }
+    scanIndex = -1;
+    buffer.position(position);
+  }
+
+  /**
+   * Writes the vertices in the layout of a checkpoint record of total vertices starting at the given position, as its
+   * first size() vertices. The position of the buffer is left as it is.
+   */
+  public void write(ByteBuffer buffer, int position, int total)
+  {
+    Cursor cursor = seek(0);
+    int coordinatesOffset = position + (total << 3);
+    for (int i = 0; i < size; i++)
+    {
+      buffer.putLong(position + (i << 3), cursor.time);
+      buffer.putDouble(coordinatesOffset + (i << 4), cursor.x * precision);
+      buffer.putDouble(coordinatesOffset + (i << 4) + 8, cursor.y * precision);
+      cursor.next();
+    }
+    scanIndex = -1;
+  }
+
+  /**
+   * Decodes the vertices into the first size() slots of the store.
+   */
+  public void copyTo(TimetreeVertexStore store, boolean withKept)
+  {
+    Cursor cursor = seek(0);
+    for (int i = 0; i < size; i++)
+    {
+      store.set(i, cursor.time, cursor.x * precision, cursor.y * precision);
+      if (withKept)
+        store.setKept(i, cursor.isKept());
+      cursor.next();
+    }
+    scanIndex = -1;
+  }
+
+  /**
+   * Estimated heap retained by the chunks.
+   */
+  public long getBytes()
+  {
+    return bytes;
+  }
+
+  /**
+   * Positions the read cursor on the vertex at the index, from where it is when that is not after the index.
+   */
+  private Cursor seek(int index)
+  {
+    int target = index;
+    if (scanIndex >= 0 && scanIndex <= index)
+      index -= scanIndex;
+    else
+      scan.set(first);
+    scanIndex = target;
+    while (index > 0)
+    {
+      int remaining = scan.chunk.count - scan.index;
+      if (index >= remaining)
+      {
+        index -= remaining;
+        scan.reset(scan.chunk.next);
+      }
+      else
+      {
+        for (; index > 0; index--)
+          scan.next();
+      }
+    }
+    return scan;
+  }
+
+  private static long chunkBytes(Chunk chunk)
+  {
+    return CHUNK_BYTES + chunk.data.length + ((chunk.kept != null) ? chunk.kept.length << 3 : 0);
+  }
+
+  private static int writeVarint(byte[] buffer, int position, long value)
+  {
+    long zigzag = (value << 1) ^ (value >> 63);
+    while ((zigzag & ~0x7FL) != 0)
+    {
+      buffer[position++] = (byte) ((zigzag & 0x7F) | 0x80);
+      zigzag >>>= 7;
+    }
+    buffer[position++] = (byte) zigzag;
+    return position;
+  }
+
+  private static final class Chunk
+  {
+    // the first vertex, coordinates quantized
+    long   time;
+    long   x;
+    long   y;
+    long   lastTime;
+    int    count;
+    byte[] data;
+    long[] kept;
+    Chunk  next;
+  }
+
+  /**
+   * Decodes the vertices of the chunks one after the other.
+   */
+  private static final class Cursor
+  {
+    Chunk chunk;
+    int   index;
+    int   position;
+    long  time;
+    long  step;
+    long  x;
+    long  y;
+
+    void reset(Chunk chunk)
+    {
+      this.chunk = chunk;
+      index = 0;
+      position = 0;
+      step = 0;
+      if (chunk != null)
+      {
+        time = chunk.time;
+        x = chunk.x;
+        y = chunk.y;
+      }
+    }
+
+    void set(Cursor other)
+    {
+      chunk = other.chunk;
+      index = other.index;
+      position = other.position;
+      time = other.time;
+      step = other.step;
+      x = other.x;
+      y = other.y;
+    }
+
+    /**
+     * Moves to the next vertex, in the next chunk after the last one of a chunk. Returns false when there was no vertex
+     * to move from.
+     */
+    boolean next()
+    {
+      if (chunk == null)
+        return false;
+      if (++index == chunk.count)
+      {
+        reset(chunk.next);
+        return true;
+      }
+      step += readVarint();
+      time += step;
+      x += readVarint();
+      y += readVarint();
+      return true;
+    }
+
+    boolean isKept()
+    {
+      return chunk.kept != null && (chunk.kept[index >> 6] & (1L << index)) != 0;
+    }
+
+    private long readVarint()
+    {
+      byte[] data = chunk.data;
+      long zigzag = 0;
+      int shift = 0;
+      byte b;
+      do
+      {
+        b = data[position++];
+        zigzag |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      }
+      while (b < 0);
+      return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Column storage behind a TimeTreeMap: a time, an x/y pair and, when the line is simplified, a kept flag per slot. The
+ * TimeTreeMap arranges the slots as a ring; a store only knows slots and its capacity. Bulk transfers use the layout of
+ * a checkpoint record: the time column followed by the interleaved coordinates.
+ */
+public abstract class TimetreeVertexStore
+{
+  public abstract int capacity();
+
+  /**
+   * The largest capacity the store can be resized to.
+   */
+  public int maxCapacity()
+  {
+    return 1 << 30;
+  }
+
+  public abstract long getTime(int slot);
+
+  public abstract double getX(int slot);
+
+  public abstract double getY(int slot);
+
+  public abstract void set(int slot, long time, double x, double y);
+
+  public abstract boolean isKept(int slot);
+
+  public abstract void setKept(int slot, boolean kept);
+
+  /**
+   * Adds or drops the kept flags. Added flags start out false.
+   */
+  public abstract void setKeptColumn(boolean enabled);
+
+  public abstract void move(int fromSlot, int toSlot);
+
+  /**
+   * Changes the capacity, moving the ring of size slots starting at head to slot 0.
+   */
+  public abstract void resize(int capacity, int head, int size);
+
+  /**
+   * Writes the ring of size slots starting at head to the buffer and advances its position.
+   */
+  public abstract void write(ByteBuffer buffer, int head, int size);
+
+  /**
+   * Reads count vertices from the buffer into the first slots and advances its position.
+   */
+  public abstract void read(ByteBuffer buffer, int count);
+
+  /**
+   * Copies the interleaved coordinates of count slots starting at the given slot, wrapping around the end of the
+   * store, to the buffer and advances its position.
+   */
+  public abstract void copyCoordinates(ByteBuffer buffer, int first, int count);
+
+  /**
+   * Bytes held for the current capacity.
+   */
+  public abstract long getBytes();
+
+  public abstract boolean isOffHeap();
+
+  /**
+   * Gives the storage back. The store must not be used afterwards.
+   */
+  public abstract void release();
+}
@@ -0,0 +1,33 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Event time clock of a processor: the latest event time received, less the allowed lateness. Time windows measured
+ * against it follow the events instead of the wall clock, so a replayed or lagging feed produces the same lines as a
+ * live one, at whatever rate it is received. The clock only moves forward.
+ */
+public class TimetreeWatermark implements LongSupplier
+{
+  private final AtomicLong latest          = new AtomicLong(0);
+  private volatile long    allowedLateness = 0;
+
+  public void setAllowedLateness(long allowedLateness)
+  {
+    this.allowedLateness = allowedLateness;
+  }
+
+  public void advance(long time)
+  {
+    long current = latest.get();
+    while (time > current && !latest.compareAndSet(current, time))
+      current = latest.get();
+  }
+
+  @Override
+  public long getAsLong()
+  {
+    return latest.get() - allowedLateness;
+  }
+}
@@ -0,0 +1,113 @@
+package com.esri.geoevent.processor.timetree;
+
+import java.lang.reflect.Proxy;
+import java.util.Date;
+
+import com.esri.core.geometry.MapGeometry;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.SpatialReference;
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.core.geoevent.GeoEventDefinition;
+
+/**
+ * Point events for the tests, backed by a proxy of the GeoEvent interface. Only the methods the processor calls on its
+ * input have state, everything else returns a default value.
+ */
+final class TestGeoEvents
+{
+  static final SpatialReference           WGS84      = SpatialReference.create(4326);
+  static final String                     DEFINITION = "0c5e3f2a-7d3b-4f1e-9a26-3f0b8d7c1e42";
+
+  private static final GeoEventDefinition GEOEVENT_DEFINITION;
+
+  static
+  {
+    GEOEVENT_DEFINITION = proxy(GeoEventDefinition.class, (name, args) ->
+      {
+        switch (name)
+        {
+          case "getGuid":
+            return DEFINITION;
+          case "getIndexOf":
+            return -1;
+          default:
+            return null;
+        }
+      });
+  }
+
+  private TestGeoEvents()
+  {
+  }
+
+  /**
+   * Creates a point event. The same time is returned for RECEIVED_TIME, TIME_START and TIME_END, and moving it moves
+   * the event.
+   */
+  static GeoEvent create(String trackId, long time, double x, double y)
+  {
+    final Date date = new Date(time);
+    final MapGeometry[] geometry = { new MapGeometry(new Point(x, y), WGS84) };
+    return proxy(GeoEvent.class, (name, args) ->
+      {
+        switch (name)
+        {
+          case "getGeoEventDefinition":
+            return GEOEVENT_DEFINITION;
+          case "getTrackId":
+            return trackId;
+          case "getReceivedTime":
+          case "getStartTime":
+          case "getEndTime":
+            return date;
+          case "getGeometry":
+            return geometry[0];
+          case "setGeometry":
+            geometry[0] = (MapGeometry) args[0];
+            return null;
+          default:
+            return null;
+        }
+      });
+  }
+
+  private interface Handler
+  {
+    Object invoke(String method, Object[] args);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, Handler handler)
+  {
+    return (T) Proxy.newProxyInstance(TestGeoEvents.class.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) ->
+      {
+        switch (method.getName())
+        {
+          case "hashCode":
+            return System.identityHashCode(proxy);
+          case "equals":
+            return proxy == args[0];
+          case "toString":
+            return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+          default:
+            Object result = handler.invoke(method.getName(), args);
+            return (result == null) ? defaultValue(method.getReturnType()) : result;
+        }
+      });
+  }
+
+  private static Object defaultValue(Class<?> type)
+  {
+    if (type == boolean.class)
+      return Boolean.FALSE;
+    if (type == long.class)
+      return 0L;
+    if (type == double.class)
+      return 0d;
+    if (type == int.class)
+      return 0;
+    if (type == short.class)
+      return (short) 0;
+    return null;
+  }
+}
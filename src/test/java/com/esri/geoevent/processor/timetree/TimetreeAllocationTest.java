@@ -0,0 +1,138 @@
+package com.esri.geoevent.processor.timetree;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.esri.core.geometry.MapGeometry;
+import com.esri.ges.core.geoevent.GeoEvent;
+
+/**
+ * Checks that ingesting an event into an existing track allocates nothing but the output line. Events are created up
+ * front, a few distinct locations per track so none is dropped as a duplicate, and reused with advancing times and
+ * their point restored once process() set a line on them. The bytes allocated by the test thread are read from the
+ * JVM, so the check needs a JVM that measures them per thread.
+ */
+public class TimetreeAllocationTest implements TimetreeProperties
+{
+  private static final int                   TRACKS   = 1000;
+  private static final int                   WINDOW   = 100;
+  private static final int                   POINTS   = 4;
+  private static final int                   WARMUP   = 200000;
+  private static final int                   MEASURED = 200000;
+  // tolerates an allocation made once during the measurement, not one per event
+  private static final double                SLACK    = 1;
+
+  private com.sun.management.ThreadMXBean    threads;
+  private TimetreeProcessor                  processor;
+  private GeoEvent[]                         events;
+  private MapGeometry[]                      locations;
+  private long                               time     = 0;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue("The JVM does not measure the bytes allocated by a thread.", threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+    processor = new TimetreeProcessor(new TimetreeProcessorDefinition());
+    processor.getProperty(IS_DELAY_COUNT).setValue(true);
+    processor.getProperty(DELAY_VALUE).setValue((long) WINDOW);
+    events = new GeoEvent[TRACKS * POINTS];
+    locations = new MapGeometry[TRACKS * POINTS];
+    for (int i = 0; i < events.length; i++)
+    {
+      events[i] = TestGeoEvents.create("track-" + (i % TRACKS), 0, i / TRACKS, i % TRACKS);
+      locations[i] = events[i].getGeometry();
+    }
+  }
+
+  @After
+  public void tearDown()
+  {
+    if (processor != null)
+      processor.shutdown();
+  }
+
+  /**
+   * With coalesced output and an interval longer than the test, process() only updates the track histories and must
+   * not allocate at all.
+   */
+  @Test
+  public void coalescedIngestAllocatesNothing() throws Exception
+  {
+    processor.getProperty(COALESCE_OUTPUT).setValue(true);
+    processor.getProperty(EMIT_INTERVAL).setValue(Long.MAX_VALUE / 2);
+    processor.afterPropertiesSet();
+
+    feed(WARMUP);
+    double perEvent = allocatedPerEvent(() -> feed(MEASURED));
+    assertTrue(String.format("Ingesting an event allocated %.3f bytes.", perEvent), perEvent < SLACK);
+  }
+
+  /**
+   * With the default settings every event gets its line: process() may allocate what building the line alone
+   * allocates, measured on a history of the same size with the same calls on the event, but nothing on top of it.
+   */
+  @Test
+  public void perEventLinesAllocateOnlyTheLine() throws Exception
+  {
+    processor.afterPropertiesSet();
+    TimeTreeMap history = new TimeTreeMap(new TimetreeKey(TestGeoEvents.DEFINITION, "line"), WINDOW);
+    GeoEvent lineEvent = TestGeoEvents.create("line", 0, 0, 0);
+
+    feed(WARMUP);
+    buildLines(history, lineEvent, WARMUP);
+    double linePerEvent = allocatedPerEvent(() -> buildLines(history, lineEvent, MEASURED));
+    double perEvent = allocatedPerEvent(() -> feed(MEASURED));
+    assertTrue(String.format("Ingesting an event allocated %.1f bytes, building its line alone %.1f bytes.", perEvent, linePerEvent), perEvent < linePerEvent + SLACK);
+  }
+
+  private interface Run
+  {
+    void run() throws Exception;
+  }
+
+  private double allocatedPerEvent(Run run) throws Exception
+  {
+    long threadId = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    run.run();
+    return (double) (threads.getThreadAllocatedBytes(threadId) - before) / MEASURED;
+  }
+
+  private void feed(int count) throws Exception
+  {
+    for (int i = 0; i < count; i++)
+    {
+      int index = i % events.length;
+      GeoEvent geoEvent = events[index];
+      if (geoEvent.getGeometry() != locations[index])
+        geoEvent.setGeometry(locations[index]);
+      // the same Date is returned for all time fields, moving it moves the event
+      geoEvent.getReceivedTime().setTime(++time);
+      processor.process(geoEvent);
+    }
+  }
+
+  /**
+   * Restores the point of an event, adds it to a full history and sets its line on the event: what feed() and the part
+   * of process() that is meant to allocate do.
+   */
+  private void buildLines(TimeTreeMap history, GeoEvent lineEvent, int count)
+  {
+    for (int i = 0; i < count; i++)
+    {
+      lineEvent.setGeometry(locations[i % POINTS]);
+      history.put(++time, lineEvent.getGeometry());
+      MapGeometry line = history.getGeometryByCount(WINDOW);
+      assertNotNull(line);
+      lineEvent.setGeometry(line);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package com.esri.geoevent.processor.timetree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.esri.core.geometry.MapGeometry;
+import com.esri.core.geometry.MultiPath;
+import com.esri.ges.core.geoevent.GeoEvent;
+
+/**
+ * Calls processEvent() from several threads at once, as GeoEvent Server does, and checks the line of every track. The
+ * event of a track with index k has the time k + 1 and the x coordinate k, so a line is checked by its x coordinates.
+ */
+public class TimetreeProcessorConcurrencyTest implements TimetreeProperties
+{
+  private static final int  THREADS = 8;
+  private static final int  TRACKS  = 64;
+  private static final int  EVENTS  = 400;
+  private static final int  WINDOW  = 50;
+
+  private TimetreeProcessor processor;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    processor = new TimetreeProcessor(new TimetreeProcessorDefinition());
+    processor.getProperty(IS_DELAY_COUNT).setValue(true);
+    processor.getProperty(DELAY_VALUE).setValue((long) WINDOW);
+    processor.afterPropertiesSet();
+  }
+
+  @After
+  public void tearDown()
+  {
+    processor.shutdown();
+  }
+
+  /**
+   * Each track is fed by one thread, in order, while the threads share the registry: every line holds exactly the
+   * window of events up to the event it was returned with.
+   */
+  @Test
+  public void linesOfTracksFedByOneThreadEach() throws Exception
+  {
+    runConcurrently(thread ->
+      {
+        for (int k = 0; k < EVENTS; k++)
+        {
+          for (int track = thread; track < TRACKS; track += THREADS)
+          {
+            GeoEvent line = processor.processEvent(event(track, k));
+            if (k == 0)
+              assertNull("A single point has no line.", line);
+            else
+              assertLine(track, line, Math.max(0, k - WINDOW + 1), k);
+          }
+        }
+      });
+    assertEquals("tracks", TRACKS, processor.getMetrics().getTrackCount());
+    assertEquals("cached points", (long) TRACKS * WINDOW, processor.getMetrics().getVertexCount());
+  }
+
+  /**
+   * Every thread feeds every track, so the events of a track arrive from all threads and slightly out of order: every
+   * line is in time order within the window, and once all events are in each track holds the newest window of them.
+   */
+  @Test
+  public void linesOfTracksFedByAllThreads() throws Exception
+  {
+    runConcurrently(thread ->
+      {
+        for (int k = thread; k < EVENTS; k += THREADS)
+        {
+          for (int track = 0; track < TRACKS; track++)
+          {
+            GeoEvent line = processor.processEvent(event(track, k));
+            if (line != null)
+              assertAscending(track, line);
+          }
+        }
+      });
+    for (int track = 0; track < TRACKS; track++)
+      assertLine(track, processor.processEvent(event(track, EVENTS)), EVENTS - WINDOW + 1, EVENTS);
+  }
+
+  private interface Feed
+  {
+    void run(int thread) throws Exception;
+  }
+
+  private static void runConcurrently(Feed feed) throws Exception
+  {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try
+    {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < THREADS; i++)
+      {
+        final int thread = i;
+        Callable<Void> task = () ->
+          {
+            start.await();
+            feed.run(thread);
+            return null;
+          };
+        futures.add(executor.submit(task));
+      }
+      start.countDown();
+      for (Future<Void> future : futures)
+      {
+        try
+        {
+          future.get();
+        }
+        catch (ExecutionException e)
+        {
+          if (e.getCause() instanceof Error)
+            throw (Error) e.getCause();
+          throw e;
+        }
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  private static GeoEvent event(int track, int k)
+  {
+    return TestGeoEvents.create("track-" + track, k + 1, k, track);
+  }
+
+  private static void assertLine(int track, GeoEvent line, int first, int last)
+  {
+    MultiPath path = path(track, line);
+    assertEquals("vertices of track " + track, last - first + 1, path.getPointCount());
+    for (int i = 0; i < path.getPointCount(); i++)
+    {
+      assertEquals("vertex " + i + " of track " + track, first + i, path.getPoint(i).getX(), 0);
+      assertEquals("vertex " + i + " of track " + track, track, path.getPoint(i).getY(), 0);
+    }
+  }
+
+  private static void assertAscending(int track, GeoEvent line)
+  {
+    MultiPath path = path(track, line);
+    assertTrue("vertices of track " + track, path.getPointCount() >= 2 && path.getPointCount() <= WINDOW);
+    for (int i = 1; i < path.getPointCount(); i++)
+      assertTrue("vertex " + i + " of track " + track + " out of order", path.getPoint(i).getX() > path.getPoint(i - 1).getX());
+  }
+
+  private static MultiPath path(int track, GeoEvent line)
+  {
+    assertNotNull("line of track " + track, line);
+    MapGeometry geometry = line.getGeometry();
+    assertNotNull("geometry of track " + track, geometry);
+    return (MultiPath) geometry.getGeometry();
+  }
+}